@@ -34,4 +34,23 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME) //TODO will it be useful for some runtime behaviour?
 public @interface Factory {
     Class<?> root();
+
+    /**
+     * Strings of the static dictionary of the module. Entries may only be appended: images stay readable
+     * by modules whose dictionary starts with the one they were written with.
+     */
+    String[] dictionary() default {};
+
+    /**
+     * Puts the package, class and field names of the module types into the static dictionary after the strings,
+     * so written descriptors refer to them instead of repeating them in every image.
+     * Such images can be read only by a module whose types have the same names and fields.
+     */
+    boolean staticNames() default false;
+
+    /**
+     * Puts the descriptors of the module types into the static dictionary after the strings, so they are never written.
+     * Such images can be read only by a module with exactly the same types and fields.
+     */
+    boolean staticDescriptors() default false;
 }
@@ -34,6 +34,13 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME) //TODO will it be useful for some runtime behaviour?
 public @interface Ice {
 
+    /**
+     * Marks the type as a value: the generated class gets {@code equals} and {@code hashCode} over its fields
+     * and equal instances may be written only once, so they have to stay unchanged after creation.
+     * Such a type can't declare setters; its instances are created with a {@link Builder}.
+     */
+    boolean immutable() default false;
+
     @SuppressWarnings("WeakerAccess")
     @Target(ElementType.TYPE)
     @Retention(RetentionPolicy.RUNTIME) //TODO will it be useful for some runtime behaviour?
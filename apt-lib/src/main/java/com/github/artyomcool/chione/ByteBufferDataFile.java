@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link DataFile} over a {@link ByteBuffer}. Primitive arrays are transferred as block copies through
+ * the buffer views instead of element by element.
+ * <p>
+ * Subclasses may provide their own storage by overriding {@link #grow(ByteBuffer, int)}.
+ */
+public class ByteBufferDataFile implements DataFile, Truncatable {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private ByteBuffer buffer;
+    private int pos = 0;
+    private int maxCount;
+
+    public ByteBufferDataFile() {
+        this(ByteBuffer.allocate(INITIAL_CAPACITY), 0);
+    }
+
+    /**
+     * Creates a file holding the remaining content of the {@code data}. The content is shared, not copied.
+     */
+    public ByteBufferDataFile(ByteBuffer data) {
+        this(data.slice(), data.remaining());
+    }
+
+    protected ByteBufferDataFile(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.maxCount = size;
+    }
+
+    @Override
+    public void seek(int offset) {
+        pos = offset;
+    }
+
+    @Override
+    public int pos() {
+        return pos;
+    }
+
+    @Override
+    public int size() {
+        return maxCount;
+    }
+
+    @Override
+    public void truncate(int size) {
+        if (size < 0 || size > maxCount) {
+            throw new ChioneException("Can't truncate " + maxCount + " bytes to " + size);
+        }
+        maxCount = size;
+        if (pos > size) {
+            pos = size;
+        }
+    }
+
+    @Override
+    public byte readByte() {
+        return buffer.get(pos++);
+    }
+
+    @Override
+    public short readShort() {
+        short result = buffer.getShort(pos);
+        pos += SHORT_SIZE;
+        return result;
+    }
+
+    @Override
+    public int readInt() {
+        int result = buffer.getInt(pos);
+        pos += INT_SIZE;
+        return result;
+    }
+
+    @Override
+    public long readLong() {
+        long result = buffer.getLong(pos);
+        pos += LONG_SIZE;
+        return result;
+    }
+
+    @Override
+    public String readString() {
+        int size = readShort() & 0xffff;
+        char[] chars = new char[size];
+        readChars(chars, 0, size);
+        return new String(chars);
+    }
+
+    @Override
+    public void readBytes(byte[] dst, int offset, int length) {
+        positioned().get(dst, offset, length);
+        pos += length;
+    }
+
+    @Override
+    public void readShorts(short[] dst, int offset, int length) {
+        positioned().asShortBuffer().get(dst, offset, length);
+        pos += length * SHORT_SIZE;
+    }
+
+    @Override
+    public void readChars(char[] dst, int offset, int length) {
+        positioned().asCharBuffer().get(dst, offset, length);
+        pos += length * SHORT_SIZE;
+    }
+
+    @Override
+    public void readInts(int[] dst, int offset, int length) {
+        positioned().asIntBuffer().get(dst, offset, length);
+        pos += length * INT_SIZE;
+    }
+
+    @Override
+    public void readLongs(long[] dst, int offset, int length) {
+        positioned().asLongBuffer().get(dst, offset, length);
+        pos += length * LONG_SIZE;
+    }
+
+    @Override
+    public void readFloats(float[] dst, int offset, int length) {
+        positioned().asFloatBuffer().get(dst, offset, length);
+        pos += length * INT_SIZE;
+    }
+
+    @Override
+    public void readDoubles(double[] dst, int offset, int length) {
+        positioned().asDoubleBuffer().get(dst, offset, length);
+        pos += length * LONG_SIZE;
+    }
+
+    /**
+     * The view shares the content, but not the growth of this file.
+     */
+    @Override
+    public ByteBufferDataFile duplicate() {
+        ByteBufferDataFile duplicate = new ByteBufferDataFile(buffer.duplicate(), maxCount);
+        duplicate.pos = pos;
+        return duplicate;
+    }
+
+    @Override
+    public int write(byte b) {
+        ensureCapacity(BYTE_SIZE);
+        buffer.put(pos, b);
+        return moved(BYTE_SIZE);
+    }
+
+    @Override
+    public int write(short s) {
+        ensureCapacity(SHORT_SIZE);
+        buffer.putShort(pos, s);
+        return moved(SHORT_SIZE);
+    }
+
+    @Override
+    public int write(int i) {
+        ensureCapacity(INT_SIZE);
+        buffer.putInt(pos, i);
+        return moved(INT_SIZE);
+    }
+
+    @Override
+    public int write(long l) {
+        ensureCapacity(LONG_SIZE);
+        buffer.putLong(pos, l);
+        return moved(LONG_SIZE);
+    }
+
+    @Override
+    public int write(String s) {
+        int length = s.length();
+        if (length > 0xffff) {
+            throw new ChioneException("String is too long for the legacy encoding: " + length);
+        }
+        int size = length * SHORT_SIZE + SHORT_SIZE;
+        ensureCapacity(size);
+        ByteBuffer buffer = this.buffer;
+        int p = pos;
+        buffer.putShort(p, (short) length);
+        p += SHORT_SIZE;
+        for (int i = 0; i < length; i++, p += SHORT_SIZE) {
+            buffer.putChar(p, s.charAt(i));
+        }
+        return moved(size);
+    }
+
+    @Override
+    public int write(byte[] data) {
+        write(data.length);
+        return write(data, 0, data.length) + INT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        positioned().put(src, offset, length);
+        return moved(length);
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        int size = length * SHORT_SIZE;
+        ensureCapacity(size);
+        positioned().asShortBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        int size = length * SHORT_SIZE;
+        ensureCapacity(size);
+        positioned().asCharBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        int size = length * INT_SIZE;
+        ensureCapacity(size);
+        positioned().asIntBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    @Override
+    public int write(long[] src, int offset, int length) {
+        int size = length * LONG_SIZE;
+        ensureCapacity(size);
+        positioned().asLongBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        int size = length * INT_SIZE;
+        ensureCapacity(size);
+        positioned().asFloatBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        int size = length * LONG_SIZE;
+        ensureCapacity(size);
+        positioned().asDoubleBuffer().put(src, offset, length);
+        return moved(size);
+    }
+
+    /**
+     * Returns storage with at least {@code required} bytes of capacity, holding the content of {@code old}.
+     */
+    protected ByteBuffer grow(ByteBuffer old, int required) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, (long) old.capacity() * 3 / 2));
+        ByteBuffer result = old.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        ByteBuffer content = old.duplicate();
+        content.clear().limit(maxCount);
+        result.put(content);
+        return result;
+    }
+
+    protected void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    private ByteBuffer positioned() {
+        buffer.limit(buffer.capacity()).position(pos);
+        return buffer;
+    }
+
+    private int moved(int size) {
+        pos += size;
+        if (pos > maxCount) {
+            maxCount = pos;
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int size) {
+        long required = (long) pos + size;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new ChioneException("Data file can't exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        buffer = grow(buffer, (int) required);
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Append-only {@link DataOutput} writing through a fixed-size reusable buffer into an {@link OutputStream}
+ * or a {@link WritableByteChannel}, so an image of any size is written with O(buffer) memory.
+ * <p>
+ * {@link Chione#serialize(Object, DataOutput)} never seeks, so it can write into this output directly.
+ * Call {@link #flush()} or {@link #close()} when the serialization is done.
+ */
+@NotThreadSafe
+public class ChannelDataOutput implements DataOutput, Flushable, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int BYTE_SIZE = 1;
+    private static final int SHORT_SIZE = 2;
+    private static final int INT_SIZE = 4;
+    private static final int LONG_SIZE = 8;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    public ChannelDataOutput(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
+    public ChannelDataOutput(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelDataOutput(WritableByteChannel channel, int bufferSize) {
+        if (bufferSize < LONG_SIZE) {
+            throw new IllegalArgumentException("Buffer is too small: " + bufferSize);
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    @Override
+    public int write(byte b) {
+        ensureRemaining(BYTE_SIZE);
+        buffer.put(b);
+        return BYTE_SIZE;
+    }
+
+    @Override
+    public int write(short s) {
+        ensureRemaining(SHORT_SIZE);
+        buffer.putShort(s);
+        return SHORT_SIZE;
+    }
+
+    @Override
+    public int write(int i) {
+        ensureRemaining(INT_SIZE);
+        buffer.putInt(i);
+        return INT_SIZE;
+    }
+
+    @Override
+    public int write(long l) {
+        ensureRemaining(LONG_SIZE);
+        buffer.putLong(l);
+        return LONG_SIZE;
+    }
+
+    @Override
+    public int write(String s) {
+        int length = s.length();
+        if (length > 0xffff) {
+            throw new ChioneException("String is too long for the legacy encoding: " + length);
+        }
+        write((short) length);
+        for (int i = 0; i < length; i++) {
+            ensureRemaining(SHORT_SIZE);
+            buffer.putChar(s.charAt(i));
+        }
+        return length * SHORT_SIZE + SHORT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] data) {
+        write(data.length);
+        return write(data, 0, data.length) + INT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        if (length > buffer.capacity()) {
+            drain();
+            writeFully(ByteBuffer.wrap(src, offset, length));
+            return length;
+        }
+        ensureRemaining(length);
+        buffer.put(src, offset, length);
+        return length;
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(SHORT_SIZE));
+            buffer.asShortBuffer().put(src, offset, count);
+            advance(count * SHORT_SIZE);
+            offset += count;
+        }
+        return length * SHORT_SIZE;
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(SHORT_SIZE));
+            buffer.asCharBuffer().put(src, offset, count);
+            advance(count * SHORT_SIZE);
+            offset += count;
+        }
+        return length * SHORT_SIZE;
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(INT_SIZE));
+            buffer.asIntBuffer().put(src, offset, count);
+            advance(count * INT_SIZE);
+            offset += count;
+        }
+        return length * INT_SIZE;
+    }
+
+    @Override
+    public int write(long[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(LONG_SIZE));
+            buffer.asLongBuffer().put(src, offset, count);
+            advance(count * LONG_SIZE);
+            offset += count;
+        }
+        return length * LONG_SIZE;
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(INT_SIZE));
+            buffer.asFloatBuffer().put(src, offset, count);
+            advance(count * INT_SIZE);
+            offset += count;
+        }
+        return length * INT_SIZE;
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, chunk(LONG_SIZE));
+            buffer.asDoubleBuffer().put(src, offset, count);
+            advance(count * LONG_SIZE);
+            offset += count;
+        }
+        return length * LONG_SIZE;
+    }
+
+    @Override
+    public void flush() {
+        drain();
+    }
+
+    @Override
+    public void close() {
+        drain();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+    private int chunk(int elementSize) {
+        ensureRemaining(elementSize);
+        return buffer.remaining() / elementSize;
+    }
+
+    private void advance(int size) {
+        buffer.position(buffer.position() + size);
+    }
+
+    private void ensureRemaining(int size) {
+        if (buffer.remaining() < size) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) {
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+}
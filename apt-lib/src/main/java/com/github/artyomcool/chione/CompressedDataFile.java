@@ -0,0 +1,675 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link DataFile} decorator storing the image in independently deflated fixed-size blocks, so a random
+ * {@link #seek(int)} inflates only the block containing the offset. Recently used blocks are kept in a small cache.
+ * <p>
+ * Storage layout: a header (magic, block size, image size, index offset), the compressed blocks and the index
+ * with the storage offset of every block. The header and the index are written by {@link #flush()}.
+ * <p>
+ * Writing is append-only: the file may be written either at its end or from the offset 0, which starts a new image.
+ * That is exactly how {@link Chione#serialize(Object, DataOutput)} writes.
+ */
+@NotThreadSafe
+public class CompressedDataFile implements DataFile, Truncatable, Flushable, Closeable {
+
+    private static final int MAGIC = 0x43484e42;
+    private static final int HEADER_SIZE = INT_SIZE * 4;
+
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int DEFAULT_CACHED_BLOCKS = 8;
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    private final DataFile storage;
+    private final DataInput source;
+    private final int blockSize;
+    private final Deflater deflater;
+    private final InflaterPool inflaters;
+    private final BlockCache cache;
+    private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+
+    private int[] blockOffsets = new int[16];
+    private int blockCount;
+    private int storageEnd = HEADER_SIZE;
+
+    private byte[] tail;
+    private byte[] compressed;
+
+    private int lastIndex = -1;
+    private byte[] lastBlock;
+
+    private int size;
+    private int pos;
+    private boolean dirty;
+
+    public CompressedDataFile(DataFile storage) {
+        this(storage, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * @param blockSize    size of the uncompressed block; ignored if the storage already contains an image
+     * @param level        {@link Deflater} compression level
+     * @param cachedBlocks count of the inflated blocks kept in memory
+     */
+    public CompressedDataFile(DataFile storage, int blockSize, int level, int cachedBlocks) {
+        this.storage = storage;
+        this.source = storage;
+        this.deflater = new Deflater(level);
+        this.inflaters = new InflaterPool();
+        this.cache = new BlockCache(cachedBlocks);
+
+        if (storage.size() == 0) {
+            this.blockSize = blockSize;
+        } else {
+            storage.seek(0);
+            if (storage.readInt() != MAGIC) {
+                throw new ChioneException("Storage doesn't contain a compressed image");
+            }
+            this.blockSize = storage.readInt();
+        }
+        this.tail = new byte[this.blockSize];
+        this.compressed = new byte[this.blockSize];
+
+        if (storage.size() != 0) {
+            open();
+        }
+    }
+
+    private CompressedDataFile(CompressedDataFile original) {
+        this.storage = null;
+        this.source = original.source.duplicate();
+        this.blockSize = original.blockSize;
+        this.deflater = null;
+        this.inflaters = original.inflaters;
+        this.cache = new BlockCache(original.cache.capacity);
+        this.blockOffsets = original.blockOffsets;
+        this.blockCount = original.blockCount;
+        this.storageEnd = original.storageEnd;
+        this.tail = original.tail;
+        this.compressed = new byte[blockSize];
+        this.size = original.size;
+        this.pos = original.pos;
+    }
+
+    private void open() {
+        size = storage.readInt();
+        int indexOffset = storage.readInt();
+
+        int count = (int) (((long) size + blockSize - 1) / blockSize);
+        blockOffsets = new int[Math.max(count, 16)];
+        storage.seek(indexOffset);
+        storage.readInts(blockOffsets, 0, count);
+
+        int tailSize = size % blockSize;
+        if (tailSize == 0) {
+            blockCount = count;
+            storageEnd = indexOffset;
+        } else {
+            blockCount = count - 1;
+            storageEnd = blockOffsets[blockCount];
+            inflate(blockCount, storageEnd, indexOffset - storageEnd, tail, tailSize);
+        }
+    }
+
+    @Override
+    public void seek(int offset) {
+        pos = offset;
+    }
+
+    @Override
+    public int pos() {
+        return pos;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Only the whole image can be dropped, since the file is append-only.
+     */
+    @Override
+    public void truncate(int size) {
+        if (size == this.size) {
+            return;
+        }
+        if (size != 0) {
+            throw new ChioneException("CompressedDataFile is append-only, can't truncate " + this.size + " bytes to " + size);
+        }
+        if (storage == null) {
+            throw new ChioneException("Duplicate of CompressedDataFile is read-only");
+        }
+        reset();
+        pos = 0;
+        dirty = true;
+    }
+
+    @Override
+    public byte readByte() {
+        if (pos >= size) {
+            throw new ChioneException("Reading beyond the end of the image: " + pos);
+        }
+        int index = pos / blockSize;
+        byte result = block(index)[pos - index * blockSize];
+        pos++;
+        return result;
+    }
+
+    @Override
+    public short readShort() {
+        return readToScratch(SHORT_SIZE).getShort(0);
+    }
+
+    @Override
+    public int readInt() {
+        return readToScratch(INT_SIZE).getInt(0);
+    }
+
+    @Override
+    public long readLong() {
+        return readToScratch(LONG_SIZE).getLong(0);
+    }
+
+    @Override
+    public String readString() {
+        int size = readShort() & 0xffff;
+        char[] chars = new char[size];
+        readChars(chars, 0, size);
+        return new String(chars);
+    }
+
+    @Override
+    public void readBytes(byte[] dst, int offset, int length) {
+        if (length > size - pos) {
+            throw new ChioneException("Reading beyond the end of the image: " + pos + " + " + length);
+        }
+        while (length > 0) {
+            int index = pos / blockSize;
+            int inBlock = pos - index * blockSize;
+            int count = Math.min(length, blockSize - inBlock);
+            System.arraycopy(block(index), inBlock, dst, offset, count);
+            pos += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void readShorts(short[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / SHORT_SIZE);
+            readToScratch(count * SHORT_SIZE).asShortBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void readChars(char[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / SHORT_SIZE);
+            readToScratch(count * SHORT_SIZE).asCharBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void readInts(int[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / INT_SIZE);
+            readToScratch(count * INT_SIZE).asIntBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void readLongs(long[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / LONG_SIZE);
+            readToScratch(count * LONG_SIZE).asLongBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void readFloats(float[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / INT_SIZE);
+            readToScratch(count * INT_SIZE).asFloatBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    @Override
+    public void readDoubles(double[] dst, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / LONG_SIZE);
+            readToScratch(count * LONG_SIZE).asDoubleBuffer().get(dst, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * The view shares the written blocks, the index and the inflaters, but has its own block cache. It is read-only
+     * and holds no native resources, so it needs no closing; the inflaters are released by {@link #close()}
+     * of this file.
+     */
+    @Override
+    public CompressedDataFile duplicate() {
+        return new CompressedDataFile(this);
+    }
+
+    @Override
+    public int write(byte b) {
+        scratch.clear();
+        scratch.put(b);
+        return writeScratch();
+    }
+
+    @Override
+    public int write(short s) {
+        scratch.clear();
+        scratch.putShort(s);
+        return writeScratch();
+    }
+
+    @Override
+    public int write(int i) {
+        scratch.clear();
+        scratch.putInt(i);
+        return writeScratch();
+    }
+
+    @Override
+    public int write(long l) {
+        scratch.clear();
+        scratch.putLong(l);
+        return writeScratch();
+    }
+
+    @Override
+    public int write(String s) {
+        int length = s.length();
+        if (length > 0xffff) {
+            throw new ChioneException("String is too long for the legacy encoding: " + length);
+        }
+        write((short) length);
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, SCRATCH_SIZE / SHORT_SIZE);
+            scratch.clear();
+            scratch.asCharBuffer().put(s, offset, offset + count);
+            append(scratch.array(), 0, count * SHORT_SIZE);
+            offset += count;
+        }
+        return length * SHORT_SIZE + SHORT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] data) {
+        write(data.length);
+        return append(data, 0, data.length) + INT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        return append(src, offset, length);
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / SHORT_SIZE);
+            scratch.clear();
+            scratch.asShortBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * SHORT_SIZE);
+            offset += count;
+        }
+        return length * SHORT_SIZE;
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / SHORT_SIZE);
+            scratch.clear();
+            scratch.asCharBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * SHORT_SIZE);
+            offset += count;
+        }
+        return length * SHORT_SIZE;
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / INT_SIZE);
+            scratch.clear();
+            scratch.asIntBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * INT_SIZE);
+            offset += count;
+        }
+        return length * INT_SIZE;
+    }
+
+    @Override
+    public int write(long[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / LONG_SIZE);
+            scratch.clear();
+            scratch.asLongBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * LONG_SIZE);
+            offset += count;
+        }
+        return length * LONG_SIZE;
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / INT_SIZE);
+            scratch.clear();
+            scratch.asFloatBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * INT_SIZE);
+            offset += count;
+        }
+        return length * INT_SIZE;
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int count = Math.min(end - offset, SCRATCH_SIZE / LONG_SIZE);
+            scratch.clear();
+            scratch.asDoubleBuffer().put(src, offset, count);
+            append(scratch.array(), 0, count * LONG_SIZE);
+            offset += count;
+        }
+        return length * LONG_SIZE;
+    }
+
+    /**
+     * Writes the uncompressed tail, the block index and the header, then flushes the storage.
+     */
+    @Override
+    public void flush() {
+        if (storage == null) {
+            return;
+        }
+        if (dirty) {
+            int tailSize = size - blockCount * blockSize;
+            int indexOffset = storageEnd;
+            if (tailSize > 0) {
+                int length = deflate(tail, tailSize);
+                storage.seek(storageEnd);
+                storage.write(compressed, 0, length);
+                indexOffset += length;
+            }
+
+            storage.seek(indexOffset);
+            storage.write(blockOffsets, 0, blockCount);
+            if (tailSize > 0) {
+                storage.write(storageEnd);
+            }
+
+            storage.seek(0);
+            storage.write(MAGIC);
+            storage.write(blockSize);
+            storage.write(size);
+            storage.write(indexOffset);
+            dirty = false;
+        }
+        if (storage instanceof Flushable) {
+            try {
+                ((Flushable) storage).flush();
+            } catch (IOException e) {
+                throw new ChioneException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (storage == null) {
+            return;
+        }
+        inflaters.end();
+        deflater.end();
+        if (storage instanceof Closeable) {
+            try {
+                ((Closeable) storage).close();
+            } catch (IOException e) {
+                throw new ChioneException(e);
+            }
+        }
+    }
+
+    private ByteBuffer readToScratch(int length) {
+        readBytes(scratch.array(), 0, length);
+        scratch.clear();
+        return scratch;
+    }
+
+    private int writeScratch() {
+        return append(scratch.array(), 0, scratch.position());
+    }
+
+    private int append(byte[] src, int offset, int length) {
+        if (storage == null) {
+            throw new ChioneException("Duplicate of CompressedDataFile is read-only");
+        }
+        if (pos != size) {
+            if (pos != 0) {
+                throw new ChioneException("CompressedDataFile is append-only, can't write at " + pos + " of " + size);
+            }
+            reset();
+        }
+        int written = length;
+        while (length > 0) {
+            int inBlock = size - blockCount * blockSize;
+            int count = Math.min(length, blockSize - inBlock);
+            System.arraycopy(src, offset, tail, inBlock, count);
+            size += count;
+            offset += count;
+            length -= count;
+            if (inBlock + count == blockSize) {
+                compressTail();
+            }
+        }
+        pos = size;
+        dirty = true;
+        return written;
+    }
+
+    private void reset() {
+        size = 0;
+        blockCount = 0;
+        storageEnd = HEADER_SIZE;
+        cache.clear();
+        lastIndex = -1;
+        lastBlock = null;
+    }
+
+    private void compressTail() {
+        int length = deflate(tail, blockSize);
+        storage.seek(storageEnd);
+        storage.write(compressed, 0, length);
+
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockOffsets[blockCount] = storageEnd;
+        cache.put(blockCount, tail);
+        blockCount++;
+        storageEnd += length;
+
+        tail = new byte[blockSize];
+    }
+
+    private byte[] block(int index) {
+        if (index == lastIndex) {
+            return lastBlock;
+        }
+        byte[] block;
+        if (index == blockCount) {
+            block = tail;
+        } else {
+            block = cache.get(index);
+            if (block == null) {
+                int offset = blockOffsets[index];
+                int end = index + 1 < blockCount ? blockOffsets[index + 1] : storageEnd;
+                block = inflate(index, offset, end - offset, new byte[blockSize], blockSize);
+                cache.put(index, block);
+            }
+        }
+        lastIndex = index;
+        lastBlock = block;
+        return block;
+    }
+
+    private int deflate(byte[] data, int length) {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int count = 0;
+        while (!deflater.finished()) {
+            if (count == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            count += deflater.deflate(compressed, count, compressed.length - count);
+        }
+        return count;
+    }
+
+    private byte[] inflate(int index, int offset, int length, byte[] block, int blockLength) {
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        source.seek(offset);
+        source.readBytes(compressed, 0, length);
+
+        Inflater inflater = inflaters.acquire();
+        inflater.setInput(compressed, 0, length);
+        try {
+            int count = 0;
+            while (count < blockLength && !inflater.finished()) {
+                int inflated = inflater.inflate(block, count, blockLength - count);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != blockLength) {
+                throw new ChioneException("Corrupted block " + index);
+            }
+        } catch (DataFormatException e) {
+            throw new ChioneException(e);
+        } finally {
+            inflaters.release(inflater);
+        }
+        return block;
+    }
+
+    /**
+     * Inflaters shared by the file and its duplicates: a {@link #duplicate()} is made per load and never closed,
+     * so it must not own a native zlib stream. The pool grows up to the count of concurrent inflations.
+     */
+    @ThreadSafe
+    private static class InflaterPool {
+
+        private final ArrayDeque<Inflater> inflaters = new ArrayDeque<>();
+        private boolean ended;
+
+        synchronized Inflater acquire() {
+            Inflater inflater = inflaters.poll();
+            return inflater == null ? new Inflater() : inflater;
+        }
+
+        synchronized void release(Inflater inflater) {
+            if (ended) {
+                inflater.end();
+                return;
+            }
+            inflater.reset();
+            inflaters.push(inflater);
+        }
+
+        synchronized void end() {
+            ended = true;
+            for (Inflater inflater : inflaters) {
+                inflater.end();
+            }
+            inflaters.clear();
+        }
+    }
+
+    private static class BlockCache extends LinkedHashMap<Integer, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        BlockCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+}
@@ -26,11 +26,21 @@ package com.github.artyomcool.chione;
 
 import java.util.Arrays;
 
-public class InMemoryDataFile implements DataFile {
+public class InMemoryDataFile implements DataFile, Truncatable {
 
-    private byte[] data = new byte[32];
-    private int pos = 0;
-    private int maxCount = 0;
+    private byte[] data;
+    private int pos;
+    private int maxCount;
+
+    public InMemoryDataFile() {
+        this(new byte[32], 0, 0);
+    }
+
+    private InMemoryDataFile(byte[] data, int pos, int maxCount) {
+        this.data = data;
+        this.pos = pos;
+        this.maxCount = maxCount;
+    }
 
     @Override
     public void seek(int offset) {
@@ -47,6 +57,17 @@ public class InMemoryDataFile implements DataFile {
         return maxCount;
     }
 
+    @Override
+    public void truncate(int size) {
+        if (size < 0 || size > maxCount) {
+            throw new ChioneException("Can't truncate " + maxCount + " bytes to " + size);
+        }
+        maxCount = size;
+        if (pos > size) {
+            pos = size;
+        }
+    }
+
     @Override
     public byte readByte() {
         return data[pos++];
@@ -54,88 +75,280 @@ public class InMemoryDataFile implements DataFile {
 
     @Override
     public short readShort() {
-        int b1 = data[pos++] & 0xff;
-        int b2 = data[pos++] & 0xff;
-        return (short) (b1 << 8 | b2);
+        short result = getShort(data, pos);
+        pos += SHORT_SIZE;
+        return result;
     }
 
     @Override
     public int readInt() {
-        int s1 = readShort() & 0xffff;
-        int s2 = readShort() & 0xffff;
-        return s1 << 16 | s2;
+        int result = getInt(data, pos);
+        pos += INT_SIZE;
+        return result;
     }
 
     @Override
     public long readLong() {
-        long l1 = readInt() & 0xffffffffL;
-        long l2 = readInt() & 0xffffffffL;
-        return l1 << 32 | l2;
+        long result = getLong(data, pos);
+        pos += LONG_SIZE;
+        return result;
     }
 
     @Override
     public String readString() {
-        int size = readShort();
+        int size = readShort() & 0xffff;
         char[] chars = new char[size];
-        for (int i = 0; i < size; i++) {
-            chars[i] = (char) readShort();
-        }
+        readChars(chars, 0, size);
         return new String(chars);
     }
 
     @Override
-    public int write(byte b) {
-        ensureSizeForByte();
-        data[pos++] = b;
-        if (pos > maxCount) {
-            maxCount = pos;
+    public void readBytes(byte[] dst, int offset, int length) {
+        System.arraycopy(data, pos, dst, offset, length);
+        pos += length;
+    }
+
+    @Override
+    public void readShorts(short[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += SHORT_SIZE) {
+            dst[i] = getShort(data, p);
+        }
+        pos = p;
+    }
+
+    @Override
+    public void readChars(char[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += SHORT_SIZE) {
+            dst[i] = (char) getShort(data, p);
+        }
+        pos = p;
+    }
+
+    @Override
+    public void readInts(int[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += INT_SIZE) {
+            dst[i] = getInt(data, p);
+        }
+        pos = p;
+    }
+
+    @Override
+    public void readLongs(long[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += LONG_SIZE) {
+            dst[i] = getLong(data, p);
+        }
+        pos = p;
+    }
+
+    @Override
+    public void readFloats(float[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += INT_SIZE) {
+            dst[i] = Float.intBitsToFloat(getInt(data, p));
+        }
+        pos = p;
+    }
+
+    @Override
+    public void readDoubles(double[] dst, int offset, int length) {
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += LONG_SIZE) {
+            dst[i] = Double.longBitsToDouble(getLong(data, p));
         }
-        return 1;
+        pos = p;
+    }
+
+    @Override
+    public InMemoryDataFile duplicate() {
+        return new InMemoryDataFile(data, pos, maxCount);
+    }
+
+    @Override
+    public int write(byte b) {
+        ensureSize(BYTE_SIZE);
+        data[pos] = b;
+        return moved(BYTE_SIZE);
     }
 
     @Override
     public int write(short s) {
-        write((byte) (s >>> 8));
-        write((byte) (s & 0xff));
-        return 2;
+        ensureSize(SHORT_SIZE);
+        putShort(data, pos, s);
+        return moved(SHORT_SIZE);
     }
 
     @Override
     public int write(int i) {
-        write((short) (i >>> 16));
-        write((short) (i & 0xffff));
-        return 4;
+        ensureSize(INT_SIZE);
+        putInt(data, pos, i);
+        return moved(INT_SIZE);
     }
 
     @Override
     public int write(long l) {
-        write((int) (l >>> 32));
-        write((int) l);
-        return 8;
+        ensureSize(LONG_SIZE);
+        putLong(data, pos, l);
+        return moved(LONG_SIZE);
     }
 
     @Override
     public int write(String s) {
-        write((short) s.length());
-        for (int i = 0; i < s.length(); i++) {
-            write((short) s.charAt(i));
+        int length = s.length();
+        if (length > 0xffff) {
+            throw new ChioneException("String is too long for the legacy encoding: " + length);
+        }
+        int size = length * SHORT_SIZE + SHORT_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        putShort(data, p, (short) length);
+        p += SHORT_SIZE;
+        for (int i = 0; i < length; i++, p += SHORT_SIZE) {
+            putShort(data, p, (short) s.charAt(i));
         }
-        return s.length() * 2 + 2;
+        return moved(size);
     }
 
     @Override
     public int write(byte[] data) {
         write(data.length);
-        for (byte b : data) {
-            write(b);
+        return write(data, 0, data.length) + INT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        ensureSize(length);
+        System.arraycopy(src, offset, data, pos, length);
+        return moved(length);
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        int size = length * SHORT_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += SHORT_SIZE) {
+            putShort(data, p, src[i]);
+        }
+        return moved(size);
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        int size = length * SHORT_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += SHORT_SIZE) {
+            putShort(data, p, (short) src[i]);
+        }
+        return moved(size);
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        int size = length * INT_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += INT_SIZE) {
+            putInt(data, p, src[i]);
         }
-        return data.length + 4;
+        return moved(size);
     }
 
-    private void ensureSizeForByte() {
-        if (maxCount == data.length) {
-            data = Arrays.copyOf(data, data.length * 3 / 2);
+    @Override
+    public int write(long[] src, int offset, int length) {
+        int size = length * LONG_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += LONG_SIZE) {
+            putLong(data, p, src[i]);
         }
+        return moved(size);
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        int size = length * INT_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += INT_SIZE) {
+            putInt(data, p, Float.floatToRawIntBits(src[i]));
+        }
+        return moved(size);
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        int size = length * LONG_SIZE;
+        ensureSize(size);
+        byte[] data = this.data;
+        int p = pos;
+        for (int i = offset, end = offset + length; i < end; i++, p += LONG_SIZE) {
+            putLong(data, p, Double.doubleToRawLongBits(src[i]));
+        }
+        return moved(size);
+    }
+
+    private int moved(int size) {
+        pos += size;
+        if (pos > maxCount) {
+            maxCount = pos;
+        }
+        return size;
+    }
+
+    private void ensureSize(int size) {
+        int required = pos + size;
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length * 3 / 2));
+        }
+    }
+
+    private static short getShort(byte[] data, int p) {
+        return (short) ((data[p] & 0xff) << 8 | data[p + 1] & 0xff);
+    }
+
+    private static int getInt(byte[] data, int p) {
+        return (data[p] & 0xff) << 24
+                | (data[p + 1] & 0xff) << 16
+                | (data[p + 2] & 0xff) << 8
+                | data[p + 3] & 0xff;
+    }
+
+    private static long getLong(byte[] data, int p) {
+        return (getInt(data, p) & 0xffffffffL) << 32 | getInt(data, p + INT_SIZE) & 0xffffffffL;
+    }
+
+    private static void putShort(byte[] data, int p, short s) {
+        data[p] = (byte) (s >>> 8);
+        data[p + 1] = (byte) s;
+    }
+
+    private static void putInt(byte[] data, int p, int i) {
+        data[p] = (byte) (i >>> 24);
+        data[p + 1] = (byte) (i >>> 16);
+        data[p + 2] = (byte) (i >>> 8);
+        data[p + 3] = (byte) i;
+    }
+
+    private static void putLong(byte[] data, int p, long l) {
+        putInt(data, p, (int) (l >>> 32));
+        putInt(data, p + INT_SIZE, (int) l);
     }
 
 }
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link DataFile} backed by a memory-mapped file, so the image is read straight from the page cache
+ * and written into mapped pages without an intermediate heap copy.
+ * <p>
+ * The mapping grows together with the written data and is remapped on demand. Since the mapping may be
+ * larger than the data, {@link #flush()} cuts the file down to the written size; it should be called
+ * (or the file closed) before the file is opened again.
+ */
+public class MappedDataFile extends ByteBufferDataFile implements Flushable, Closeable {
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    public MappedDataFile(File file) {
+        this(open(file));
+    }
+
+    private MappedDataFile(FileChannel channel) {
+        this(channel, map(channel, size(channel)));
+    }
+
+    private MappedDataFile(FileChannel channel, MappedByteBuffer mapped) {
+        super(mapped, mapped.capacity());
+        this.channel = channel;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Forces the written data to the storage and cuts the file down to {@link #size()}.
+     */
+    @Override
+    public void flush() {
+        try {
+            mapped.force();
+            if (channel.size() != size()) {
+                channel.truncate(size());
+                mapped = map(channel, size());
+                setBuffer(mapped);
+            }
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+    @Override
+    protected ByteBuffer grow(ByteBuffer old, int required) {
+        long capacity = Math.max(Math.max(required, MIN_CAPACITY), (long) old.capacity() * 3 / 2);
+        mapped = map(channel, (int) Math.min(capacity, Integer.MAX_VALUE));
+        return mapped;
+    }
+
+    private static FileChannel open(File file) {
+        try {
+            return FileChannel.open(
+                    file.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+            );
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+    private static int size(FileChannel channel) {
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new ChioneException("File is too large: " + size + " bytes");
+            }
+            return (int) size;
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int size) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new ChioneException(e);
+        }
+    }
+
+}
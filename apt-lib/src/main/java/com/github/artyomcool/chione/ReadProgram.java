@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import java.util.Arrays;
+
+/**
+ * Reader of one stored layout compiled from its {@link Step steps}. For every expected field the program keeps
+ * the size of the stored primitives and the count of the stored references to skip before it, and whether
+ * the field is stored at all. If references of fields have a fixed size, as with {@link ChioneFormat#FIXED_FIELDS}
+ * or without {@link ChioneFormat#VAR_INTS}, every gap is skipped with a single computed seek; otherwise the gap is
+ * walked as runs of bytes, each skipped with one seek, and runs of references, scanned byte by byte.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ReadProgram {
+
+    private final int[] skipBytes;
+    private final int[] skipReferences;
+    private final int[] starts;
+    private final int[] ops;
+    private final boolean[] present;
+    private final Transform[] transforms;
+
+    private ReadProgram(int[] skipBytes,
+                        int[] skipReferences,
+                        int[] starts,
+                        int[] ops,
+                        boolean[] present,
+                        Transform[] transforms) {
+        this.skipBytes = skipBytes;
+        this.skipReferences = skipReferences;
+        this.starts = starts;
+        this.ops = ops;
+        this.present = present;
+        this.transforms = transforms;
+    }
+
+    /**
+     * @param fieldCount count of the expected fields; fields without steps are not stored
+     */
+    static ReadProgram compile(ReadOnlyArray<Step> steps, int fieldCount) {
+        int[] skipBytes = new int[fieldCount];
+        int[] skipReferences = new int[fieldCount];
+        int[] starts = new int[fieldCount + 1];
+        int[] ops = new int[steps.size()];
+        boolean[] present = new boolean[fieldCount];
+        Transform[] transforms = new Transform[fieldCount];
+
+        int field = 0;
+        int count = 0;
+        boolean runStarted = false;
+        for (int i = 0; i < steps.size() && field < fieldCount; i++) {
+            Step step = steps.get(i);
+            if (step.hasExpected()) {
+                present[field] = step.hasStored();
+                transforms[field] = step.transform();
+                starts[++field] = count;
+                runStarted = false;
+            } else if (step.storedReference()) {
+                skipReferences[field]++;
+                // a positive op skips bytes, a negative one skips references
+                if (runStarted && ops[count - 1] < 0) {
+                    ops[count - 1]--;
+                } else {
+                    ops[count++] = -1;
+                    runStarted = true;
+                }
+            } else {
+                skipBytes[field] += step.storedSize();
+                if (runStarted && ops[count - 1] > 0) {
+                    ops[count - 1] += step.storedSize();
+                } else {
+                    ops[count++] = step.storedSize();
+                    runStarted = true;
+                }
+            }
+        }
+        while (field < fieldCount) {
+            starts[++field] = count;
+        }
+        return new ReadProgram(skipBytes, skipReferences, starts, Arrays.copyOf(ops, count), present, transforms);
+    }
+
+    /**
+     * Skips the stored fields preceding the expected one: with a single seek if the gap holds no references or
+     * {@link ChioneDataInput#referenceSize() references have a fixed size}, by scanning the references otherwise.
+     *
+     * @return whether the field is stored and has to be read
+     */
+    public boolean seek(ChioneDataInput input, int field) {
+        int references = skipReferences[field];
+        if (references == 0) {
+            int bytes = skipBytes[field];
+            if (bytes != 0) {
+                input.seek(input.pos() + bytes);
+            }
+            return present[field];
+        }
+
+        int referenceSize = input.referenceSize();
+        if (referenceSize > 0) {
+            input.seek(input.pos() + skipBytes[field] + references * referenceSize);
+            return present[field];
+        }
+
+        for (int i = starts[field], end = starts[field + 1]; i < end; i++) {
+            int op = ops[i];
+            if (op > 0) {
+                input.seek(input.pos() + op);
+            } else {
+                input.skipReferences(-op);
+            }
+        }
+        return present[field];
+    }
+
+    /**
+     * @return transform of a stored field, see {@link #seek(ChioneDataInput, int)}
+     */
+    public Transform transform(int field) {
+        return transforms[field];
+    }
+
+}
@@ -26,17 +26,17 @@ package com.github.artyomcool.chione;
 
 class ReadStrategy {
 
-    private final ReadOnlyArray<Step> steps;
+    private final ReadProgram program;
     private final boolean hasSkip;
     private final boolean hasNull;
     private final boolean hasTransform;
 
-    static ReadStrategy fromSteps(ReadOnlyArray<Step> steps) {
-        return new ReadStrategy(steps);
+    static ReadStrategy fromSteps(ReadOnlyArray<Step> steps, int fieldCount) {
+        return new ReadStrategy(steps, fieldCount);
     }
 
-    private ReadStrategy(ReadOnlyArray<Step> steps) {
-        this.steps = steps;
+    private ReadStrategy(ReadOnlyArray<Step> steps, int fieldCount) {
+        this.program = ReadProgram.compile(steps, fieldCount);
 
         boolean hasSkip = false;
         boolean hasNull = false;
@@ -49,6 +49,9 @@ class ReadStrategy {
             if (!step.hasStored()) {
                 hasSkip = true;
             }
+            if (step.isTransformed()) {
+                hasTransform = true;
+            }
         }
         this.hasSkip = hasSkip;
         this.hasNull = hasNull;
@@ -56,13 +59,10 @@ class ReadStrategy {
     }
 
     void read(ChioneDataInput input, SnowFlake snowFlake) {
-        if (hasSkip || hasNull) {
-            if (hasTransform) {
-                //TODO
-                throw new UnsupportedOperationException();
-            } else {
-                snowFlake.readSimple(input, steps);
-            }
+        if (hasTransform) {
+            snowFlake.readTransformed(input, program);
+        } else if (hasSkip || hasNull) {
+            snowFlake.readSimple(input, program);
         } else {
             snowFlake.readTrivial(input);
         }
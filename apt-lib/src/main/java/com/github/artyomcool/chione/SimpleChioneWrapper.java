@@ -24,25 +24,56 @@
 
 package com.github.artyomcool.chione;
 
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Any number of threads may {@link #load()} the image at once: every load reads its own
+ * {@link DataInput#duplicate() duplicate} of the file, which is also used later by its {@link Lazy} values.
+ * Saves are serialized with each other, but must not overlap loads, since the bytes are shared.
+ */
+@ThreadSafe
 public class SimpleChioneWrapper<T> implements ChioneWrapper<T> {
 
     private final Chione chione;
     private final DataFile file;
+    private final boolean lazy;
 
     public SimpleChioneWrapper(Chione chione, DataFile file) {
+        this(chione, file, false);
+    }
+
+    /**
+     * @param lazy whether {@link #load()} inflates objects on demand, see {@link Chione#deserialize(DataInput, boolean)}
+     */
+    public SimpleChioneWrapper(Chione chione, DataFile file, boolean lazy) {
         this.chione = chione;
         this.file = file;
+        this.lazy = lazy;
     }
 
     @Override
-    public void save(T root) {
+    public synchronized void save(T root) {
         file.seek(0);
         chione.serialize(root, file);
+        if (file instanceof Truncatable) {
+            ((Truncatable) file).truncate(file.pos());
+        }
+        if (file instanceof Flushable) {
+            try {
+                ((Flushable) file).flush();
+            } catch (IOException e) {
+                throw new ChioneException(e);
+            }
+        }
     }
 
     @Override
     public T load() {
-        file.seek(0);
-        return chione.deserialize(file, false);
+        DataInput view = file.duplicate();
+        view.seek(0);
+        return chione.deserialize(view, lazy);
     }
 }
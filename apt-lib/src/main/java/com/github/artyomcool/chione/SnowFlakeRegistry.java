@@ -24,30 +24,54 @@
 
 package com.github.artyomcool.chione;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Resolves how objects stored with some layout are read into the expected one. Strategies are cached by the
+ * {@link ChioneDescriptor#layoutFingerprint() fingerprint} of the stored layout, up to {@link #MAX_STRATEGIES}
+ * layouts, so they are shared by all the files, readers and threads using the serializer.
+ */
 public class SnowFlakeRegistry {
 
+    static final int MAX_STRATEGIES = 64;
+
     private final ChioneDescriptor expectedDescriptor;
-    private final ArrayMap<ChioneDescriptor, ReadStrategy> stepsCache = new ArrayMap<>();
+    private final ConcurrentMap<Long, CachedStrategy> strategies = new ConcurrentHashMap<>();
+    private volatile CachedStrategy last;
 
     public SnowFlakeRegistry(ChioneDescriptor expectedDescriptor) {
         this.expectedDescriptor = expectedDescriptor;
     }
 
     ReadStrategy getStrategy(ChioneDescriptor descriptor) {
-        ReadStrategy strategy = stepsCache.get(descriptor);
-        if (strategy == null) {
+        CachedStrategy cached = last;
+        if (cached != null && cached.stored == descriptor) {
+            return cached.strategy;
+        }
+
+        Long key = descriptor.layoutFingerprint();
+        cached = strategies.get(key);
+        if (cached == null || !cached.stored.equals(descriptor)) {
             List<SnowFlakeField> expected = fieldsFromDescriptor(expectedDescriptor);
             List<SnowFlakeField> stored = fieldsFromDescriptor(descriptor);
             ReadOnlyArray<Step> steps = ReadOnlyArray.fromList(compareSortedSameTyped(expected, stored));
-            strategy = ReadStrategy.fromSteps(steps);
-            stepsCache.put(descriptor, strategy);
+            CachedStrategy created = new CachedStrategy(descriptor, ReadStrategy.fromSteps(steps, expected.size()));
+            if (cached == null && strategies.size() < MAX_STRATEGIES) {
+                CachedStrategy existing = strategies.putIfAbsent(key, created);
+                cached = existing != null && existing.stored.equals(descriptor) ? existing : created;
+            } else {
+                // a fingerprint collision or too many layouts: the strategy is used, but isn't cached
+                cached = created;
+            }
         }
-        return strategy;
+        last = cached.stored == descriptor ? cached : new CachedStrategy(descriptor, cached.strategy);
+        return cached.strategy;
     }
 
     private List<SnowFlakeField> fieldsFromDescriptor(ChioneDescriptor descriptor) {
@@ -75,19 +99,31 @@ public class SnowFlakeRegistry {
 
         while (true) {
             Step step = compare(expectedNext, storedNext);
-            result.add(step);
+            boolean advanceExpected;
+            boolean advanceStored;
+            if (step == null) {
+                // the type has changed incompatibly: the stored value is skipped and the field keeps its default
+                result.add(Step.skipStep(storedNext));
+                result.add(Step.nullStep(expectedNext));
+                advanceExpected = true;
+                advanceStored = true;
+            } else {
+                result.add(step);
+                advanceExpected = step.hasExpected();
+                advanceStored = step.hasStored();
+            }
 
-            if (step.hasExpected()) {
+            if (advanceExpected) {
                 if (!expectedIterator.hasNext()) {
                     break;
                 }
                 expectedNext = expectedIterator.next();
             }
-            if (step.hasStored()) {
+            if (advanceStored) {
                 if (!storedIterator.hasNext()) {
+                    result.add(Step.nullStep(expectedNext));
                     while (expectedIterator.hasNext()) {
-                        expectedIterator.next();
-                        result.add(Step.nullStep(expectedNext));
+                        result.add(Step.nullStep(expectedIterator.next()));
                     }
                     break;
                 }
@@ -98,11 +134,26 @@ public class SnowFlakeRegistry {
         return result;
     }
 
+    @Nullable
     private Step compare(SnowFlakeField expected, SnowFlakeField stored) {
         int compared =  expected.name().compareTo(stored.name());
         if (compared == 0) {
-            return Step.readStep(expected, stored);
+            if (expected.type().equals(stored.type()) || Transform.readsAsIs(stored.type(), expected.type())) {
+                return Step.readStep(expected, stored);
+            }
+            Transform transform = Transform.of(stored.type(), expected.type());
+            return transform == null ? null : Step.transformStep(expected, stored, transform);
         }
         return compared < 0 ? Step.nullStep(expected) : Step.skipStep(stored);
     }
+
+    private static class CachedStrategy {
+        final ChioneDescriptor stored;
+        final ReadStrategy strategy;
+
+        CachedStrategy(ChioneDescriptor stored, ReadStrategy strategy) {
+            this.stored = stored;
+            this.strategy = strategy;
+        }
+    }
 }
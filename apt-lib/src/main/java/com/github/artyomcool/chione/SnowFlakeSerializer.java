@@ -24,7 +24,7 @@
 
 package com.github.artyomcool.chione;
 
-public abstract class SnowFlakeSerializer<T extends SnowFlake> implements ChioneSerializer<T> {
+public abstract class SnowFlakeSerializer<T extends SnowFlake> implements ChioneSerializer<T>, Described {
 
     private final ChioneDescriptor descriptor;
     private final SnowFlakeRegistry registry;
@@ -34,6 +34,11 @@ public abstract class SnowFlakeSerializer<T extends SnowFlake> implements Chione
         this.registry = new SnowFlakeRegistry(descriptor);
     }
 
+    @Override
+    public ChioneDescriptor descriptor() {
+        return descriptor;
+    }
+
     @Override
     public ChioneDescriptor describe(T obj) {
         return descriptor;
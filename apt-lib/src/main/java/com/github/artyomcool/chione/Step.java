@@ -28,26 +28,46 @@ import javax.annotation.Nullable;
 
 @SuppressWarnings("WeakerAccess")
 public class Step {
+
+    /**
+     * {@link #storedSize()} of references, whose slots may have any length.
+     */
+    public static final int REFERENCE_SIZE = -1;
+
     @Nullable
     private final SnowFlakeField expected;
     @Nullable
     private final SnowFlakeField stored;
+    @Nullable
+    private final Transform transform;
+    private final boolean transformed;
+    private final int storedSize;
 
     static Step nullStep(SnowFlakeField expected) {
-        return new Step(expected, null);
+        return new Step(expected, null, null, false);
     }
 
     static Step skipStep(SnowFlakeField stored) {
-        return new Step(null, stored);
+        return new Step(null, stored, null, false);
     }
 
     static Step readStep(SnowFlakeField expected, SnowFlakeField stored) {
-        return new Step(expected, stored);
+        return new Step(expected, stored, Transform.identity(expected.type()), false);
+    }
+
+    static Step transformStep(SnowFlakeField expected, SnowFlakeField stored, Transform transform) {
+        return new Step(expected, stored, transform, true);
     }
 
-    private Step(@Nullable SnowFlakeField expected, @Nullable SnowFlakeField stored) {
+    private Step(@Nullable SnowFlakeField expected,
+                 @Nullable SnowFlakeField stored,
+                 @Nullable Transform transform,
+                 boolean transformed) {
         this.expected = expected;
         this.stored = stored;
+        this.transform = transform;
+        this.transformed = transformed;
+        this.storedSize = stored == null ? 0 : sizeOf(stored.type());
     }
 
     public boolean hasExpected() {
@@ -58,11 +78,35 @@ public class Step {
         return stored != null;
     }
 
+    /**
+     * @return whether the stored field has another type than the expected one
+     */
+    public boolean isTransformed() {
+        return transformed;
+    }
+
+    /**
+     * @return transform reading the stored field into the expected one, {@code null} if there is nothing to read
+     */
+    @Nullable
+    public Transform transform() {
+        return transform;
+    }
+
+    public boolean storedReference() {
+        return storedSize == REFERENCE_SIZE;
+    }
+
+    /**
+     * @return size of the stored primitive, {@link #REFERENCE_SIZE} for references and 0 if nothing is stored
+     */
     public int storedSize() {
-        if (stored == null) {
-            return 0;
-        }
-        switch (stored.type()) {
+        return storedSize;
+    }
+
+    private static int sizeOf(String type) {
+        switch (type) {
+            case "boolean":
             case "byte":
                 return 1;
             case "char":
@@ -70,11 +114,12 @@ public class Step {
                 return 2;
             case "int":
             case "float":
-            default:
                 return 4;
             case "double":
             case "long":
                 return 8;
+            default:
+                return REFERENCE_SIZE;
         }
     }
 }
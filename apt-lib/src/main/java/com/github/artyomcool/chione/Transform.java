@@ -0,0 +1,522 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import javax.annotation.Nullable;
+
+import static com.github.artyomcool.chione.Util.unsafeCast;
+
+/**
+ * Reads a stored field into a field of another type: numeric widening, boxing and unboxing, wrapping into
+ * {@link Lazy} and unwrapping from it. A transform is resolved once per pair of types, so reading a field
+ * is a single virtual call of the method matching the type of the field.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class Transform {
+
+    private static final String LAZY_PREFIX = Lazy.class.getName() + "<";
+
+    private static final Transform BOOLEAN = new Transform() {
+        @Override
+        public boolean readBoolean(ChioneDataInput input) {
+            return input.readByte() > 0;
+        }
+    };
+
+    private static final Transform BYTE = new Transform() {
+        @Override
+        public byte readByte(ChioneDataInput input) {
+            return input.readByte();
+        }
+
+        @Override
+        public short readShort(ChioneDataInput input) {
+            return input.readByte();
+        }
+
+        @Override
+        public int readInt(ChioneDataInput input) {
+            return input.readByte();
+        }
+
+        @Override
+        public long readLong(ChioneDataInput input) {
+            return input.readByte();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return input.readByte();
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return input.readByte();
+        }
+    };
+
+    private static final Transform SHORT = new Transform() {
+        @Override
+        public short readShort(ChioneDataInput input) {
+            return input.readShort();
+        }
+
+        @Override
+        public int readInt(ChioneDataInput input) {
+            return input.readShort();
+        }
+
+        @Override
+        public long readLong(ChioneDataInput input) {
+            return input.readShort();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return input.readShort();
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return input.readShort();
+        }
+    };
+
+    private static final Transform CHAR = new Transform() {
+        @Override
+        public char readChar(ChioneDataInput input) {
+            return (char) input.readShort();
+        }
+
+        @Override
+        public int readInt(ChioneDataInput input) {
+            return (char) input.readShort();
+        }
+
+        @Override
+        public long readLong(ChioneDataInput input) {
+            return (char) input.readShort();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return (char) input.readShort();
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return (char) input.readShort();
+        }
+    };
+
+    private static final Transform INT = new Transform() {
+        @Override
+        public int readInt(ChioneDataInput input) {
+            return input.readInt();
+        }
+
+        @Override
+        public long readLong(ChioneDataInput input) {
+            return input.readInt();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return input.readInt();
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return input.readInt();
+        }
+    };
+
+    private static final Transform LONG = new Transform() {
+        @Override
+        public long readLong(ChioneDataInput input) {
+            return input.readLong();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return input.readLong();
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return input.readLong();
+        }
+    };
+
+    private static final Transform FLOAT = new Transform() {
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return Float.intBitsToFloat(input.readInt());
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return Float.intBitsToFloat(input.readInt());
+        }
+    };
+
+    private static final Transform DOUBLE = new Transform() {
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            return Double.longBitsToDouble(input.readLong());
+        }
+    };
+
+    private static final Transform REFERENCE = new Transform() {
+        @Override
+        public <T> T readReference(ChioneDataInput input) {
+            return input.readFieldReference();
+        }
+    };
+
+    private static final Transform LAZY_CONTENT = new Transform() {
+        @Override
+        public <T> T readReference(ChioneDataInput input) {
+            Lazy<T> lazy = input.readFieldReference();
+            return lazy == null ? null : lazy.get();
+        }
+    };
+
+    public boolean readBoolean(ChioneDataInput input) {
+        throw unsupported("boolean");
+    }
+
+    public byte readByte(ChioneDataInput input) {
+        throw unsupported("byte");
+    }
+
+    public short readShort(ChioneDataInput input) {
+        throw unsupported("short");
+    }
+
+    public char readChar(ChioneDataInput input) {
+        throw unsupported("char");
+    }
+
+    public int readInt(ChioneDataInput input) {
+        throw unsupported("int");
+    }
+
+    public long readLong(ChioneDataInput input) {
+        throw unsupported("long");
+    }
+
+    public float readFloat(ChioneDataInput input) {
+        throw unsupported("float");
+    }
+
+    public double readDouble(ChioneDataInput input) {
+        throw unsupported("double");
+    }
+
+    public <T> T readReference(ChioneDataInput input) {
+        throw unsupported("reference");
+    }
+
+    private ChioneException unsupported(String type) {
+        return new ChioneException("The stored field can't be read as " + type);
+    }
+
+    /**
+     * @return transform reading a field of the given type as is
+     */
+    static Transform identity(String type) {
+        Transform primitive = primitive(type);
+        return primitive == null ? REFERENCE : primitive;
+    }
+
+    /**
+     * @return transform of a stored field into the expected type, or {@code null} if there is none
+     */
+    @Nullable
+    static Transform of(String stored, String expected) {
+        String storedContent = lazyContent(stored);
+        String expectedContent = lazyContent(expected);
+        if (storedContent != null && expectedContent != null) {
+            return null;
+        }
+        if (expectedContent != null) {
+            Transform content = convert(stored, expectedContent, false);
+            return content == null ? null : toLazy(content);
+        }
+        if (storedContent != null) {
+            return convert(storedContent, expected, true);
+        }
+        return convert(stored, expected, false);
+    }
+
+    /**
+     * @return whether values of the stored reference type may be assigned to the expected one without a transform,
+     * as it has always been done for changed type arguments or supertypes
+     */
+    static boolean readsAsIs(String stored, String expected) {
+        return primitive(stored) == null && primitive(expected) == null
+                && unbox(stored) == null && unbox(expected) == null
+                && lazyContent(stored) == null && lazyContent(expected) == null;
+    }
+
+    @Nullable
+    private static Transform convert(String stored, String expected, boolean storedInLazy) {
+        if (stored.equals(expected)) {
+            return storedInLazy ? LAZY_CONTENT : identity(expected);
+        }
+        Transform storedPrimitive = storedInLazy ? null : primitive(stored);
+        Transform expectedPrimitive = primitive(expected);
+        if (storedPrimitive != null) {
+            if (expectedPrimitive != null) {
+                return widens(stored, expected) ? storedPrimitive : null;
+            }
+            String unboxed = unbox(expected);
+            if (unboxed != null && (unboxed.equals(stored) || widens(stored, unboxed))) {
+                return box(storedPrimitive, unboxed);
+            }
+            return null;
+        }
+        if (expectedPrimitive != null) {
+            String unboxed = unbox(stored);
+            if (unboxed != null && (unboxed.equals(expected) || widens(unboxed, expected))) {
+                return new Unboxing(storedInLazy ? LAZY_CONTENT : REFERENCE);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Transform primitive(String type) {
+        switch (type) {
+            case "boolean":
+                return BOOLEAN;
+            case "byte":
+                return BYTE;
+            case "short":
+                return SHORT;
+            case "char":
+                return CHAR;
+            case "int":
+                return INT;
+            case "long":
+                return LONG;
+            case "float":
+                return FLOAT;
+            case "double":
+                return DOUBLE;
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    private static String unbox(String type) {
+        switch (type) {
+            case "java.lang.Boolean":
+                return "boolean";
+            case "java.lang.Byte":
+                return "byte";
+            case "java.lang.Short":
+                return "short";
+            case "java.lang.Character":
+                return "char";
+            case "java.lang.Integer":
+                return "int";
+            case "java.lang.Long":
+                return "long";
+            case "java.lang.Float":
+                return "float";
+            case "java.lang.Double":
+                return "double";
+            default:
+                return null;
+        }
+    }
+
+    @Nullable
+    private static String lazyContent(String type) {
+        if (type.startsWith(LAZY_PREFIX) && type.endsWith(">")) {
+            return type.substring(LAZY_PREFIX.length(), type.length() - 1);
+        }
+        return null;
+    }
+
+    private static boolean widens(String from, String to) {
+        switch (from) {
+            case "byte":
+                return to.equals("short") || to.equals("int") || to.equals("long")
+                        || to.equals("float") || to.equals("double");
+            case "short":
+            case "char":
+                return to.equals("int") || to.equals("long") || to.equals("float") || to.equals("double");
+            case "int":
+                return to.equals("long") || to.equals("float") || to.equals("double");
+            case "long":
+                return to.equals("float") || to.equals("double");
+            case "float":
+                return to.equals("double");
+            default:
+                return false;
+        }
+    }
+
+    private static Transform box(final Transform primitive, String boxed) {
+        switch (boxed) {
+            case "boolean":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readBoolean(input));
+                    }
+                };
+            case "byte":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readByte(input));
+                    }
+                };
+            case "short":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readShort(input));
+                    }
+                };
+            case "char":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readChar(input));
+                    }
+                };
+            case "int":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readInt(input));
+                    }
+                };
+            case "long":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readLong(input));
+                    }
+                };
+            case "float":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readFloat(input));
+                    }
+                };
+            case "double":
+                return new Transform() {
+                    @Override
+                    public <T> T readReference(ChioneDataInput input) {
+                        return unsafeCast(primitive.readDouble(input));
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown primitive: " + boxed);
+        }
+    }
+
+    private static Transform toLazy(final Transform content) {
+        return new Transform() {
+            @Override
+            public <T> T readReference(ChioneDataInput input) {
+                return unsafeCast(new Lazy<Object>(content.readReference(input)));
+            }
+        };
+    }
+
+    /**
+     * Unboxes a stored wrapper; {@code null} is read as the default value of the field.
+     */
+    private static class Unboxing extends Transform {
+
+        private final Transform boxed;
+
+        Unboxing(Transform boxed) {
+            this.boxed = boxed;
+        }
+
+        @Override
+        public boolean readBoolean(ChioneDataInput input) {
+            Boolean value = boxed.readReference(input);
+            return value != null && value;
+        }
+
+        @Override
+        public byte readByte(ChioneDataInput input) {
+            Number value = boxed.readReference(input);
+            return value == null ? 0 : value.byteValue();
+        }
+
+        @Override
+        public short readShort(ChioneDataInput input) {
+            Number value = boxed.readReference(input);
+            return value == null ? 0 : value.shortValue();
+        }
+
+        @Override
+        public char readChar(ChioneDataInput input) {
+            Character value = boxed.readReference(input);
+            return value == null ? 0 : value;
+        }
+
+        @Override
+        public int readInt(ChioneDataInput input) {
+            return (int) readLong(input);
+        }
+
+        @Override
+        public long readLong(ChioneDataInput input) {
+            Object value = boxed.readReference(input);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Character ? (Character) value : ((Number) value).longValue();
+        }
+
+        @Override
+        public float readFloat(ChioneDataInput input) {
+            return (float) readDouble(input);
+        }
+
+        @Override
+        public double readDouble(ChioneDataInput input) {
+            Object value = boxed.readReference(input);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Character ? (Character) value : ((Number) value).doubleValue();
+        }
+    }
+
+}
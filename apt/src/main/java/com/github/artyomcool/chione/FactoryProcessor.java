@@ -35,6 +35,8 @@ import javax.lang.model.type.TypeMirror;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static javax.lang.model.element.Modifier.*;
 
@@ -68,7 +70,13 @@ class FactoryProcessor extends Processor<Factory> {
                 .addCode(
                         CodeBlock.builder()
                                 .addStatement("this.file = file")
-                                .addStatement("this.chione = new $T(createSerializers())", Chione.class)
+                                .addStatement("$T serializers = createSerializers()", serializersMap())
+                                .addStatement(
+                                        "this.chione = new $T(serializers, $T.DEFAULT, $T.DEFAULT, createDictionary(serializers))",
+                                        Chione.class,
+                                        ChioneFormat.class,
+                                        DeduplicationPolicy.class
+                                )
                                 .addStatement(
                                         "this.chioneWrapper = new $T<>(chione, file)",
                                         SimpleChioneWrapper.class
@@ -106,6 +114,15 @@ class FactoryProcessor extends Processor<Factory> {
 
         moduleBuilder.addMethod(createSerializers);
 
+        MethodSpec createDictionary = MethodSpec.methodBuilder("createDictionary")
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(serializersMap(), "serializers")
+                .returns(ChioneDictionary.class)
+                .addCode(createDictionary(element))
+                .build();
+
+        moduleBuilder.addMethod(createDictionary);
+
         return JavaFile.builder(factoryClass(element).packageName(), moduleBuilder.build())
                 .skipJavaLangImports(true)
                 .build();
@@ -129,6 +146,39 @@ class FactoryProcessor extends Processor<Factory> {
         return builder.build();
     }
 
+    private CodeBlock createDictionary(TypeElement element) {
+        Set<String> iceClasses = new TreeSet<>();
+        VoidVisitor visitor = new VoidVisitor() {
+            @Override
+            protected void visitExecutable(ExecutableElement executableElement) {
+                iceClasses.add(getIceClass(executableElement).toString());
+            }
+        };
+        for (Element e : element.getEnclosedElements()) {
+            visitor.visit(e);
+        }
+
+        Factory factory = element.getAnnotation(Factory.class);
+
+        CodeBlock.Builder builder = CodeBlock.builder();
+        builder.addStatement("$T builder = $T.builder()", ChioneDictionary.Builder.class, ChioneDictionary.class);
+        for (String string : factory.dictionary()) {
+            builder.addStatement("builder.add($S)", string);
+        }
+        if (factory.staticNames()) {
+            for (String iceClass : iceClasses) {
+                builder.addStatement("builder.addNames((($T<?>) serializers.get($S)).descriptor())", SnowFlakeSerializer.class, iceClass);
+            }
+        }
+        if (factory.staticDescriptors()) {
+            for (String iceClass : iceClasses) {
+                builder.addStatement("builder.add((($T<?>) serializers.get($S)).descriptor())", SnowFlakeSerializer.class, iceClass);
+            }
+        }
+        builder.addStatement("return builder.build()");
+        return builder.build();
+    }
+
     private ParameterizedTypeName serializersMap() {
         ClassName serializedRegistryRawType = ClassName.get(ChioneSerializer.class);
         WildcardTypeName wildcard = WildcardTypeName.subtypeOf(Object.class);
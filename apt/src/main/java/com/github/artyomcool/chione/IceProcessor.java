@@ -33,7 +33,9 @@ import javax.lang.model.type.TypeKind;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static javax.lang.model.element.Modifier.*;
 
@@ -62,6 +64,16 @@ class IceProcessor extends Processor<Ice> {
                 .addSuperinterface(className);
 
         List<MethodDescriptor> methods = FieldAnalyzer.analyze(element);
+        if (element.getAnnotation(Ice.class).immutable()) {
+            for (MethodDescriptor descriptor : methods) {
+                if (descriptor.setter() != null) {
+                    throw new IllegalArgumentException(
+                            "@Ice(immutable = true) type " + element + " can't declare setter '" + descriptor.name() + "'"
+                    );
+                }
+            }
+        }
+
         Optional<? extends Element> builder = element.getEnclosedElements().stream()
                 .filter(e -> e.getAnnotation(Ice.Builder.class) != null)
                 .findAny();
@@ -112,6 +124,12 @@ class IceProcessor extends Processor<Ice> {
 
         methods.sort(Comparator.comparing(MethodDescriptor::name));
 
+        if (element.getAnnotation(Ice.class).immutable()) {
+            typeSpecBuilder.addSuperinterface(ImmutableValue.class);
+            typeSpecBuilder.addMethod(equalsMethod(methods, generatedClassName));
+            typeSpecBuilder.addMethod(hashCodeMethod(methods));
+        }
+
         MethodSpec generateSerializer = MethodSpec.methodBuilder("$generateSerializer")
                 .addModifiers(PUBLIC, STATIC)
                 .returns(ParameterizedTypeName.get(ClassName.get(SnowFlakeSerializer.class), generatedClassName))
@@ -142,12 +160,22 @@ class IceProcessor extends Processor<Ice> {
                 .addModifiers(PROTECTED)
                 .addAnnotation(Override.class)
                 .addParameter(ChioneDataInput.class, "input")
-                .addParameter(ParameterizedTypeName.get(ReadOnlyArray.class, Step.class), "steps")
+                .addParameter(ReadProgram.class, "program")
                 .addCode(readCode(methods, true))
                 .build();
 
         typeSpecBuilder.addMethod(readSimple);
 
+        MethodSpec readTransformed = MethodSpec.methodBuilder("readTransformed")
+                .addModifiers(PROTECTED)
+                .addAnnotation(Override.class)
+                .addParameter(ChioneDataInput.class, "input")
+                .addParameter(ReadProgram.class, "program")
+                .addCode(readTransformedCode(methods))
+                .build();
+
+        typeSpecBuilder.addMethod(readTransformed);
+
         MethodSpec chioneName = MethodSpec.methodBuilder("chioneName")
                 .addModifiers(PUBLIC)
                 .addAnnotation(Override.class)
@@ -186,7 +214,19 @@ class IceProcessor extends Processor<Ice> {
 
     private CodeBlock generateSerializerCode(List<MethodDescriptor> methods, ClassName className, ClassName generatedClassName) {
 
-        TypeSpec serializer = TypeSpec.anonymousClassBuilder("new $T($S, $L, $L)", ChioneDescriptor.class, className, 1, "fields")
+        List<SnowFlakeField> fields = methods.stream()
+                .map(m -> new SnowFlakeField(m.name(), m.type().toString()))
+                .collect(Collectors.toList());
+        long layoutFingerprint = new ChioneDescriptor(className.toString(), 1, fields).layoutFingerprint();
+
+        TypeSpec serializer = TypeSpec.anonymousClassBuilder(
+                "new $T($S, $L, $L, $LL)",
+                ChioneDescriptor.class,
+                className,
+                1,
+                "fields",
+                "0x" + Long.toHexString(layoutFingerprint)
+        )
                 .superclass(ParameterizedTypeName.get(ClassName.get(SnowFlakeSerializer.class), generatedClassName))
                 .addMethod(
                         MethodSpec.methodBuilder("instantiate")
@@ -210,7 +250,7 @@ class IceProcessor extends Processor<Ice> {
         for (MethodDescriptor descriptor : descriptors) {
             TypeName type = descriptor.type();
             if (!type.isPrimitive()) {
-                builder.addStatement("output.writeReference(this.$L)", descriptor.name());
+                builder.addStatement("output.writeFieldReference(this.$L)", descriptor.name());
             } else {
                 if (type == TypeName.BOOLEAN) {
                     builder.addStatement("output.write(this.$L ? (byte) 1 : (byte) 0)", descriptor.name());
@@ -233,19 +273,16 @@ class IceProcessor extends Processor<Ice> {
         return builder.build();
     }
 
-    private CodeBlock readCode(List<MethodDescriptor> descriptors, boolean withSteps) {
+    private CodeBlock readCode(List<MethodDescriptor> descriptors, boolean withProgram) {
         CodeBlock.Builder builder = CodeBlock.builder();
-        if (withSteps) {
-            builder.addStatement("int current = -1");
-        }
-        for (MethodDescriptor descriptor : descriptors) {
-            if (withSteps) {
-                builder.addStatement("current = skip(input, steps, current)");
-                builder.beginControlFlow("if (hasCurrentField(steps, current))");
+        for (int i = 0; i < descriptors.size(); i++) {
+            MethodDescriptor descriptor = descriptors.get(i);
+            if (withProgram) {
+                builder.beginControlFlow("if (program.seek(input, $L))", i);
             }
             TypeName type = descriptor.type();
             if (!type.isPrimitive()) {
-                builder.addStatement("this.$L = input.readReference()", descriptor.name());
+                builder.addStatement("this.$L = input.readFieldReference()", descriptor.name());
             } else {
                 if (type == TypeName.BOOLEAN) {
                     builder.addStatement("this.$L = input.readByte() > 0", descriptor.name());
@@ -267,13 +304,112 @@ class IceProcessor extends Processor<Ice> {
                     throw new AssertionError();
                 }
             }
-            if (withSteps) {
+            if (withProgram) {
                 builder.endControlFlow();
             }
         }
         return builder.build();
     }
 
+    private CodeBlock readTransformedCode(List<MethodDescriptor> descriptors) {
+        CodeBlock.Builder builder = CodeBlock.builder();
+        for (int i = 0; i < descriptors.size(); i++) {
+            MethodDescriptor descriptor = descriptors.get(i);
+            builder.beginControlFlow("if (program.seek(input, $L))", i);
+            TypeName type = descriptor.type();
+            String method;
+            if (!type.isPrimitive()) {
+                method = "readReference";
+            } else if (type == TypeName.BOOLEAN) {
+                method = "readBoolean";
+            } else if (type == TypeName.BYTE) {
+                method = "readByte";
+            } else if (type == TypeName.SHORT) {
+                method = "readShort";
+            } else if (type == TypeName.CHAR) {
+                method = "readChar";
+            } else if (type == TypeName.INT) {
+                method = "readInt";
+            } else if (type == TypeName.LONG) {
+                method = "readLong";
+            } else if (type == TypeName.FLOAT) {
+                method = "readFloat";
+            } else if (type == TypeName.DOUBLE) {
+                method = "readDouble";
+            } else {
+                throw new AssertionError();
+            }
+            builder.addStatement("this.$L = program.transform($L).$L(input)", descriptor.name(), i, method);
+            builder.endControlFlow();
+        }
+        return builder.build();
+    }
+
+    private MethodSpec equalsMethod(List<MethodDescriptor> descriptors, ClassName generatedClassName) {
+        CodeBlock.Builder builder = CodeBlock.builder()
+                .beginControlFlow("if (this == o)")
+                .addStatement("return true")
+                .endControlFlow()
+                .beginControlFlow("if (o == null || getClass() != o.getClass())")
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("$T that = ($T) o", generatedClassName, generatedClassName);
+
+        for (MethodDescriptor descriptor : descriptors) {
+            TypeName type = descriptor.type();
+            String name = descriptor.name();
+            if (!type.isPrimitive()) {
+                builder.beginControlFlow("if (!$T.equals(this.$L, that.$L))", Objects.class, name, name);
+            } else if (type == TypeName.FLOAT) {
+                builder.beginControlFlow("if (Float.compare(this.$L, that.$L) != 0)", name, name);
+            } else if (type == TypeName.DOUBLE) {
+                builder.beginControlFlow("if (Double.compare(this.$L, that.$L) != 0)", name, name);
+            } else {
+                builder.beginControlFlow("if (this.$L != that.$L)", name, name);
+            }
+            builder.addStatement("return false").endControlFlow();
+        }
+
+        return MethodSpec.methodBuilder("equals")
+                .addModifiers(PUBLIC)
+                .addAnnotation(Override.class)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(Object.class, "o")
+                .addCode(builder.addStatement("return true").build())
+                .build();
+    }
+
+    private MethodSpec hashCodeMethod(List<MethodDescriptor> descriptors) {
+        CodeBlock.Builder builder = CodeBlock.builder()
+                .addStatement("int result = 0");
+
+        for (MethodDescriptor descriptor : descriptors) {
+            TypeName type = descriptor.type();
+            String name = descriptor.name();
+            if (!type.isPrimitive()) {
+                builder.addStatement("result = 31 * result + $T.hashCode(this.$L)", Objects.class, name);
+            } else if (type == TypeName.BOOLEAN) {
+                builder.addStatement("result = 31 * result + (this.$L ? 1231 : 1237)", name);
+            } else if (type == TypeName.LONG) {
+                builder.addStatement("result = 31 * result + (int) (this.$L ^ (this.$L >>> 32))", name, name);
+            } else if (type == TypeName.FLOAT) {
+                builder.addStatement("result = 31 * result + Float.floatToIntBits(this.$L)", name);
+            } else if (type == TypeName.DOUBLE) {
+                builder.addStatement("long $LBits = Double.doubleToLongBits(this.$L)", name, name);
+                builder.addStatement("result = 31 * result + (int) ($LBits ^ ($LBits >>> 32))", name, name);
+            } else {
+                builder.addStatement("result = 31 * result + this.$L", name);
+            }
+        }
+
+        return MethodSpec.methodBuilder("hashCode")
+                .addModifiers(PUBLIC)
+                .addAnnotation(Override.class)
+                .returns(TypeName.INT)
+                .addCode(builder.addStatement("return result").build())
+                .build();
+    }
+
     private CodeBlock getterBody(MethodDescriptor descriptor) {
         return descriptor.fieldAccessor();
     }
@@ -35,6 +35,11 @@ import org.junit.Test
 import org.junit.runner.RunWith
 
 import javax.tools.StandardLocation
+import java.lang.ref.WeakReference
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.util.concurrent.Executors
+import java.util.zip.Deflater
 
 @RunWith(JUnitParamsRunner)
 class AnnotationProcessorTest {
@@ -98,7 +103,7 @@ class AnnotationProcessorTest {
         return generate(sources).loadClass(name).newInstance(dataFile) as ChioneModule<?, ?>
     }
 
-    ChioneModule<?, ?> oneEntryModule(String entry) {
+    ChioneModule<?, ?> oneEntryModule(String entry, DataFile dataFile = new InMemoryDataFile()) {
         def factoryClass =
                 """
                     package test;
@@ -113,10 +118,10 @@ class AnnotationProcessorTest {
                     }
                 """
 
-        return generateModule("test.SomeFactoryModule", entry, factoryClass)
+        return generateModule(dataFile, "test.SomeFactoryModule", entry, factoryClass)
     }
 
-    ChioneModule<?, ?> oneFieldModule(String type) {
+    ChioneModule<?, ?> oneFieldModule(String type, DataFile dataFile = new InMemoryDataFile()) {
         oneEntryModule """
                     package test;
 
@@ -131,7 +136,7 @@ class AnnotationProcessorTest {
                         
                     }
 
-                """
+                """, dataFile
     }
 
     @Test
@@ -224,6 +229,849 @@ class AnnotationProcessorTest {
         assert nextEntry.data() == original
     }
 
+    @Test
+    @Parameters(["boolean", "byte", "short", "char", "int", "float", "long", "double"])
+    void byteBufferArray(String type) {
+        def module = oneFieldModule("$type[]", new ByteBufferDataFile())
+        def factory = module.factory()
+        def chione = module.chione()
+
+        def entry = factory.createEntry()
+
+        def clazz = entry.getClass().getMethod("data").returnType;
+
+        def original = (-1000..1000).asType(clazz)
+        entry.data(original)
+        chione.save(entry)
+
+        def nextEntry = chione.load()
+
+        assert !(entry.data().is(nextEntry.data()))
+        assert nextEntry.data() == original
+    }
+
+    @Test
+    void channelDataOutput() {
+        def root = new HashMap<String, Object>()
+        root.put("strings", new ArrayList<>((0..500).collect { "string $it".toString() }))
+        root.put("ints", (0..1000).toArray(new int[0]) as int[])
+        root.put("longs", (0..1000).collect { it * 1000000000000L } as long[])
+        root.put("chars", ("chars" * 100).toCharArray())
+
+        def memory = new InMemoryDataFile()
+        new Chione().serialize(root, memory)
+        def expected = new byte[memory.size()]
+        memory.seek(0)
+        memory.readBytes(expected, 0, expected.length)
+
+        def stream = new ByteArrayOutputStream()
+        def output = new ChannelDataOutput(Channels.newChannel(stream), 16)
+        new Chione().serialize(root, output)
+        output.close()
+
+        assert stream.toByteArray() == expected
+
+        def loaded = new Chione().deserialize(new ByteBufferDataFile(ByteBuffer.wrap(stream.toByteArray())), false)
+        assert loaded == root
+    }
+
+    @Test
+    void varIntFormat() {
+        def root = new ArrayList<Object>()
+        (0..3000).each { root.add(new ArrayList<>(["item $it".toString(), it % 2 == 0 ? null : root])) }
+
+        def legacy = new InMemoryDataFile()
+        new Chione(Collections.emptyMap(), ChioneFormat.LEGACY).serialize(root, legacy)
+        def compact = new InMemoryDataFile()
+        new Chione(Collections.emptyMap(), ChioneFormat.DEFAULT).serialize(root, compact)
+
+        assert compact.size() < legacy.size() * 0.7
+
+        [legacy, compact].each { file ->
+            file.seek(0)
+            List<Object> loaded = new Chione().deserialize(file, false)
+            assert loaded.size() == root.size()
+            assert loaded[3000][0] == "item 3000"
+            assert loaded[2999][1].is(loaded)
+            assert loaded[2998][1] == null
+        }
+    }
+
+    @Test
+    void compactStrings() {
+        def root = new ArrayList<Object>([
+                "",
+                "plain ascii",
+                "latin-1: caf\u00e9",
+                "\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430",
+                "emoji: \ud83d\ude00",
+                "unpaired: \ud83d!",
+                "x" * 100000,
+                "\u044f" * 100000
+        ])
+
+        def compact = new InMemoryDataFile()
+        new Chione().serialize(root, compact)
+        compact.seek(0)
+        assert new Chione().deserialize(compact, false) == root
+
+        def legacy = new InMemoryDataFile()
+        def legacyRoot = ["y" * 40000]
+        new Chione(Collections.emptyMap(), ChioneFormat.LEGACY).serialize(legacyRoot, legacy)
+        legacy.seek(0)
+        assert new Chione().deserialize(legacy, false) == legacyRoot
+
+        try {
+            new Chione(Collections.emptyMap(), ChioneFormat.LEGACY).serialize(root, new InMemoryDataFile())
+            assert false
+        } catch (ChioneException ignored) {
+        }
+    }
+
+    @Test
+    void compressedDataFile() {
+        def root = new ArrayList<Object>()
+        (0..5000).each { root.add(new ArrayList<>(["item ${it % 100}".toString(), it, [it, it * 2] as int[]])) }
+
+        def plain = new InMemoryDataFile()
+        new Chione().serialize(root, plain)
+
+        def storage = new InMemoryDataFile()
+        def compressed = new CompressedDataFile(storage, 1024, Deflater.BEST_SPEED, 2)
+        new Chione().serialize(root, compressed)
+        compressed.flush()
+
+        assert compressed.size() == plain.size()
+        assert storage.size() < plain.size() / 2
+
+        compressed.seek(0)
+        assert new Chione().deserialize(compressed, false) == root
+
+        def reopened = new CompressedDataFile(storage, 1024, Deflater.BEST_SPEED, 2)
+        assert reopened.size() == plain.size()
+        assert new Chione().deserialize(reopened, false) == root
+        (0..<10).each {
+            def view = reopened.duplicate()
+            view.seek(0)
+            assert new Chione().deserialize(view, false) == root
+        }
+        assert reopened.@inflaters.@inflaters.size() == 1
+
+        reopened.seek(0)
+        new Chione().serialize(["rewritten"], reopened)
+        reopened.close()
+        assert new Chione().deserialize(new CompressedDataFile(storage), false) == ["rewritten"]
+    }
+
+    @Test
+    void lazyDeserialization() {
+        def root = new ArrayList<Object>()
+        (0..3000).each { root.add(new Lazy<Object>(["value $it".toString(), it])) }
+
+        def file = new InMemoryDataFile()
+        new Chione().serialize(root, file)
+
+        file.seek(0)
+        List<Lazy<Object>> loaded = new Chione().deserialize(file, true)
+
+        assert loaded.size() == root.size()
+        assert loaded.every { !it.isLoaded() }
+        assert loaded[2500].get() == ["value 2500", 2500]
+        assert loaded.count { it.isLoaded() } == 1
+        assert loaded.collect { it.get() } == root.collect { it.get() }
+
+        def empty = new InMemoryDataFile()
+        new Chione().serialize(null, empty)
+        empty.seek(0)
+        assert new Chione().deserialize(empty, true) == null
+        empty.seek(0)
+        assert new Chione().deserialize(empty, false) == null
+    }
+
+    @Test
+    @Parameters(["true", "false"])
+    void contiguousIndex(boolean lazy) {
+        def root = new ArrayList<Object>()
+        (0..3000).each { root.add(new Lazy<Object>(["value $it".toString(), it])) }
+
+        def file = new InMemoryDataFile()
+        new Chione(Collections.emptyMap(), ChioneFormat.DEFAULT.with(ChioneFormat.CONTIGUOUS_INDEX)).serialize(root, file)
+
+        file.seek(0)
+        List<Lazy<Object>> loaded = new Chione().deserialize(file, lazy)
+
+        assert loaded[1234].get() == ["value 1234", 1234]
+        assert loaded.collect { it.get() } == root.collect { it.get() }
+    }
+
+    @Test
+    @Parameters(["0", "4"])
+    void parallelSerialization(int flags) {
+        def shared = new ArrayList<Object>(["shared", 42])
+        def root = new ArrayList<Object>()
+        (0..20000).each { root.add(new ArrayList<>(["item ${it % 1000}".toString(), it, shared, [it] as int[]])) }
+        root.add(root)
+
+        def executor = Executors.newFixedThreadPool(4)
+        def file = new InMemoryDataFile()
+        try {
+            new Chione(Collections.emptyMap(), ChioneFormat.DEFAULT.with(flags)).serialize(root, file, executor, 4)
+        } finally {
+            executor.shutdown()
+        }
+
+        file.seek(0)
+        List<Object> loaded = new Chione().deserialize(file, false)
+
+        assert loaded.size() == root.size()
+        assert loaded.last().is(loaded)
+        assert loaded[0][2].is(loaded[20000][2])
+        assert loaded[0][2] == shared
+        assert loaded.subList(0, 20001).collect { [it[0], it[1], it[3][0]] } ==
+                root.subList(0, 20001).collect { [it[0], it[1], it[3][0]] }
+    }
+
+    @Test(timeout = 60000L)
+    void parallelSerializationFailure() {
+        // a chain keeps at most one object queued, so the idle workers wait for the failing one
+        def root = new ArrayList<Object>([new Object()])
+        (0..<100000).each { root = new ArrayList<Object>([root]) }
+
+        def executor = Executors.newFixedThreadPool(4)
+        try {
+            new Chione().serialize(root, new InMemoryDataFile(), executor, 4)
+            assert false
+        } catch (IllegalArgumentException ignored) {
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    void parallelDeserialization() {
+        def module = oneFieldModule("SomeEntry")
+        def factory = module.factory()
+
+        def entries = (0..500).collect { factory.createEntry() }
+        entries.eachWithIndex { entry, i -> entry.data(entries[(i * 7 + 1) % entries.size()]) }
+
+        def shared = new ArrayList<Object>(["shared"])
+        def root = new ArrayList<Object>()
+        (0..20000).each { root.add(new ArrayList<>(["item ${it % 1000}".toString(), it, shared, new Lazy<Object>(it)])) }
+        root.add(root)
+        root.add(entries)
+
+        def file = new InMemoryDataFile()
+        Chione chione = module.@chione
+        chione.serialize(root, file)
+        file.seek(0)
+
+        def executor = Executors.newFixedThreadPool(4)
+        List<Object> loaded
+        try {
+            loaded = chione.deserialize(file, executor, 4)
+        } finally {
+            executor.shutdown()
+        }
+
+        assert loaded.size() == root.size()
+        assert loaded[20001].is(loaded)
+        assert loaded[0][2].is(loaded[20000][2])
+        assert loaded.subList(0, 20001).collect { [it[0], it[1], it[3].get()] } ==
+                root.subList(0, 20001).collect { [it[0], it[1], it[3].get()] }
+
+        List<Object> loadedEntries = loaded[20002]
+        loadedEntries.eachWithIndex { entry, i -> assert entry.data().is(loadedEntries[(i * 7 + 1) % loadedEntries.size()]) }
+    }
+
+    @Test
+    void stampedReferences() {
+        def module = oneFieldModule("SomeEntry")
+        def factory = module.factory()
+        Chione chione = module.@chione
+
+        def entries = (0..10).collect { factory.createEntry() }
+        entries.eachWithIndex { entry, i -> entry.data(entries[(i + 1) % entries.size()]) }
+        def root = new ArrayList<Object>(entries + entries)
+
+        // an unfinished registry keeps some of the objects claimed, so the next session has to fall back
+        def foreign = new ChioneRegistry(new RecollectionRegistry())
+        foreign.ref(entries[3])
+
+        for (int i = 0; i < 2; i++) {
+            def file = new InMemoryDataFile()
+            chione.serialize(root, file)
+            file.seek(0)
+            List<Object> loaded = chione.deserialize(file, false)
+
+            assert loaded.size() == 22
+            (0..10).each {
+                assert loaded[it].is(loaded[it + 11])
+                assert loaded[it].data().is(loaded[(it + 1) % 11])
+            }
+            foreign.finish()
+        }
+    }
+
+    @Test
+    void deduplication() {
+        def module = generateModule("test.SomeFactoryModule",
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice(immutable = true)
+                    public interface SomeEntry {
+
+                        long id();
+
+                        String name();
+
+                        @Ice.Builder
+                        public interface Builder {
+                            Builder id(long id);
+                            Builder name(String name);
+                            SomeEntry build();
+                        }
+
+                    }
+                """,
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Factory;
+
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+
+                        SomeEntry.Builder entryBuilder();
+
+                    }
+                """
+        )
+        def factory = module.factory()
+        def entries = (0..99).collect { factory.entryBuilder().id(it % 10).name("entry ${it % 10}".toString()).build() }
+        def longs = (0..999).collect { new Long(it % 10 + 1000) }
+        def root = new ArrayList<Object>([entries, longs])
+
+        def serializers = module.createSerializers()
+        def chione = new Chione(serializers, ChioneFormat.DEFAULT, DeduplicationPolicy.VALUES)
+        def file = new InMemoryDataFile()
+        chione.serialize(root, file)
+        file.seek(0)
+        List<Object> loaded = chione.deserialize(file, false)
+
+        assert loaded[0][0] == entries[0]
+        assert loaded[0][0].is(loaded[0][10])
+        assert !loaded[0][0].is(loaded[0][1])
+        assert loaded[0].collect { [it.id(), it.name()] } == entries.collect { [it.id(), it.name()] }
+        assert loaded[1][0].is(loaded[1][10])
+        assert loaded[1] == longs
+
+        def identityFile = new InMemoryDataFile()
+        new Chione(serializers, ChioneFormat.DEFAULT, DeduplicationPolicy.DEFAULT).serialize(longs, identityFile)
+        identityFile.seek(0)
+        List<Object> identityLoaded = new Chione().deserialize(identityFile, false)
+
+        def boundedFile = new InMemoryDataFile()
+        new Chione(serializers, ChioneFormat.DEFAULT, DeduplicationPolicy.VALUES.withLimit(5)).serialize(longs, boundedFile)
+        boundedFile.seek(0)
+        List<Object> boundedLoaded = new Chione().deserialize(boundedFile, false)
+
+        assert identityLoaded == longs && boundedLoaded == longs
+        assert !identityLoaded[0].is(identityLoaded[10])
+        assert boundedLoaded[0].is(boundedLoaded[10])
+        assert !boundedLoaded[5].is(boundedLoaded[15])
+        assert identityFile.size() > boundedFile.size()
+    }
+
+    @Test
+    void registeredValueType() {
+        def module = generateModule("test.SomeFactoryModule",
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice
+                    public interface SomeEntry {
+
+                        long id();
+
+                        SomeEntry id(long id);
+
+                    }
+                """,
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Factory;
+
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+
+                        SomeEntry entry();
+
+                    }
+                """
+        )
+        def valueType = new GroovyClassLoader(module.getClass().classLoader).parseClass("""
+                package test
+
+                class ValueEntry extends SomeEntry\$\$\$Impl {
+
+                    boolean equals(Object o) {
+                        o instanceof ValueEntry && o.id() == id()
+                    }
+
+                    int hashCode() {
+                        Long.hashCode(id())
+                    }
+
+                }
+        """)
+        def entries = (0..99).collect { valueType.newInstance().id(it % 10) }
+        def chione = new Chione(module.createSerializers(), ChioneFormat.DEFAULT,
+                DeduplicationPolicy.DEFAULT.withValueType(valueType))
+
+        def sequential = new InMemoryDataFile()
+        chione.serialize(new ArrayList<Object>(entries), sequential)
+
+        def parallel = new InMemoryDataFile()
+        def executor = Executors.newFixedThreadPool(2)
+        try {
+            chione.serialize(new ArrayList<Object>(entries), parallel, executor, 2)
+        } finally {
+            executor.shutdown()
+        }
+
+        [sequential, parallel].each {
+            it.seek(0)
+            List<Object> loaded = chione.deserialize(it, false)
+            assert loaded.collect { it.id() } == entries.collect { it.id() }
+            assert loaded[0].is(loaded[10])
+            assert !loaded[0].is(loaded[1])
+        }
+        assert sequential.size() == parallel.size()
+    }
+
+    @Test
+    void immutableWithSetter() {
+        try {
+            oneEntryModule """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice(immutable = true)
+                    public interface SomeEntry {
+
+                        long id();
+
+                        SomeEntry id(long id);
+
+                    }
+                """
+            throw new IllegalStateException("Setter of an immutable type was accepted")
+        } catch (RuntimeException e) {
+            def cause = e
+            while (cause.cause != null && !(cause instanceof IllegalArgumentException)) {
+                cause = cause.cause
+            }
+            assert cause.message.contains("can't declare setter 'id'")
+        }
+    }
+
+    @Test
+    void staticDictionary() {
+        def module = generateModule("test.SomeFactoryModule",
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice
+                    public interface SomeEntry {
+
+                        String data();
+
+                        void data(String t);
+
+                    }
+                """,
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Factory;
+
+                    @Factory(root = SomeEntry.class, dictionary = {"hello"}, staticDescriptors = true)
+                    public interface SomeFactory {
+
+                        SomeEntry createEntry();
+
+                    }
+                """
+        )
+        def entry = module.factory().createEntry()
+        entry.data("hello")
+
+        Chione chione = module.@chione
+        def file = new InMemoryDataFile()
+        chione.serialize(entry, file)
+        file.seek(0)
+        def loaded = chione.deserialize(file, false)
+
+        assert loaded.data() == "hello"
+
+        def serializers = module.createSerializers()
+        def plain = new Chione(serializers, ChioneFormat.DEFAULT, DeduplicationPolicy.DEFAULT, ChioneDictionary.EMPTY)
+        def plainFile = new InMemoryDataFile()
+        plain.serialize(entry, plainFile)
+
+        assert file.size() < plainFile.size()
+
+        plainFile.seek(0)
+        assert chione.deserialize(plainFile, false).data() == "hello"
+
+        file.seek(0)
+        try {
+            plain.deserialize(file, false)
+            assert false
+        } catch (ChioneException ignored) {
+        }
+
+        module.chione().save(entry)
+        assert module.chione().load().data() == "hello"
+    }
+
+    @Test
+    void staticNames() {
+        def module = generateModule("test.SomeFactoryModule",
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice
+                    public interface SomeEntry {
+
+                        long uniquePayload();
+
+                        void uniquePayload(long t);
+
+                    }
+                """,
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Factory;
+
+                    @Factory(root = SomeEntry.class, staticNames = true)
+                    public interface SomeFactory {
+
+                        SomeEntry createEntry();
+
+                    }
+                """
+        )
+        def entry = module.factory().createEntry()
+        entry.uniquePayload(42L)
+
+        Chione chione = module.@chione
+        def file = new InMemoryDataFile()
+        chione.serialize(entry, file)
+
+        def plain = new Chione(module.createSerializers(), ChioneFormat.DEFAULT, DeduplicationPolicy.DEFAULT, ChioneDictionary.EMPTY)
+        def plainFile = new InMemoryDataFile()
+        plain.serialize(entry, plainFile)
+
+        def image = { DataFile f ->
+            byte[] bytes = new byte[f.size()]
+            f.seek(0)
+            f.readBytes(bytes, 0, bytes.length)
+            new String(bytes, "ISO-8859-1")
+        }
+        assert !image(file).contains("uniquePayload")
+        assert image(plainFile).contains("uniquePayload")
+
+        file.seek(0)
+        assert chione.deserialize(file, false).uniquePayload() == 42L
+    }
+
+    @Test
+    @Parameters(["0", "4"])
+    void sessionReuse(int flags) {
+        def module = oneFieldModule("Object")
+        def factory = module.factory()
+        def serializers = module.createSerializers()
+        def session = new Chione(serializers, ChioneFormat.DEFAULT.with(flags)).newSession()
+
+        def shared = factory.createEntry()
+        shared.data("shared")
+
+        for (int size : [3, 3000, 1, 0, 1500]) {
+            def root = new ArrayList<Object>((0..<size).collect { "item ${it % 7}".toString() })
+            root.add(shared)
+            root.add(new Lazy<Object>(shared))
+            root.add(root)
+
+            def file = new InMemoryDataFile()
+            session.serialize(root, file)
+            file.seek(0)
+            List<Object> loaded = session.deserialize(file)
+
+            assert loaded.size() == size + 3
+            assert loaded.subList(0, size) == root.subList(0, size)
+            assert loaded[size].data() == "shared"
+            assert loaded[size + 1].get().is(loaded[size])
+            assert loaded[size + 2].is(loaded)
+        }
+
+        def file = new InMemoryDataFile()
+        session.serialize(new Lazy<Object>("lazy"), file)
+        file.seek(0)
+        Lazy<Object> stale = session.deserialize(file)
+        session.reset()
+        try {
+            stale.get()
+            assert false
+        } catch (ChioneException ignored) {
+        }
+    }
+
+    @Test
+    void inlineValues() {
+        def values = [
+                null, true, false, 0, -1, 42, Integer.MAX_VALUE, Integer.MIN_VALUE, 1 << 29,
+                0L, Long.MIN_VALUE, 1.5d, Double.NaN, 2.5f, (short) -7, (byte) 3, 'x' as char,
+                "", "short", "exactly sixteen!", "a string longer than sixteen chars"
+        ]
+        def root = new HashMap<Object, Object>()
+        values.eachWithIndex { v, i -> root.put(i, v) }
+        root.put("list", new ArrayList<Object>(values))
+        root.put("lazy", new Lazy<Object>(4096))
+
+        def inline = new Chione(Collections.emptyMap(), ChioneFormat.DEFAULT.with(ChioneFormat.INLINE_VALUES))
+        def file = new InMemoryDataFile()
+        inline.serialize(root, file)
+        file.seek(0)
+        Map<Object, Object> loaded = new Chione().deserialize(file, false)
+
+        values.eachWithIndex { v, i ->
+            assert loaded[i] == v || (v instanceof Double && v.isNaN() && loaded[i].isNaN())
+            assert loaded[i]?.getClass() == v?.getClass()
+        }
+        assert loaded["list"].collect { it?.getClass() } == values.collect { it?.getClass() }
+        assert loaded["lazy"].get() == 4096
+
+        def plainFile = new InMemoryDataFile()
+        new Chione().serialize(root, plainFile)
+        assert file.size() < plainFile.size()
+
+        try {
+            ChioneFormat.LEGACY.with(ChioneFormat.INLINE_VALUES)
+            assert false
+        } catch (ChioneException ignored) {
+        }
+    }
+
+    @Test
+    void descriptorInterning() {
+        for (def format : [ChioneFormat.LEGACY, ChioneFormat.DEFAULT]) {
+            def sizes = [1, 101].collect { count ->
+                def root = new ArrayList<Object>()
+                count.times {
+                    root.add(new ArrayList<Object>(["x"]))
+                    root.add([7] as int[])
+                }
+                def file = new InMemoryDataFile()
+                new Chione(Collections.emptyMap(), format).serialize(root, file)
+                file.seek(0)
+                List<Object> loaded = new Chione(Collections.emptyMap(), format).deserialize(file, false)
+                assert loaded.size() == count * 2
+                assert loaded[1] == [7] as int[]
+                file.size()
+            }
+            // a list and an array with its reference and table entry each, but no descriptors
+            assert (sizes[1] - sizes[0]) / 100 <= (format.has(ChioneFormat.VAR_INTS) ? 16 : 40)
+        }
+
+        def first = ChioneDescriptor.intern(new ChioneDescriptor("test.Interned", 1, [new SnowFlakeField("a", "int")]))
+        def second = new ChioneDescriptor("test.Interned", 1, [new SnowFlakeField("a", "int")])
+        assert first == second && first.hashCode() == second.hashCode()
+        assert ChioneDescriptor.intern(second).is(first)
+        assert first != new ChioneDescriptor("test.Interned", 2, [new SnowFlakeField("a", "int")])
+
+        assert first.layoutFingerprint() == second.layoutFingerprint()
+        assert first.layoutFingerprint() != new ChioneDescriptor("test.Interned", 1, [new SnowFlakeField("a", "long")]).layoutFingerprint()
+        assert first.layoutFingerprint() != new ChioneDescriptor("test.Interned", 1, [new SnowFlakeField("b", "int")]).layoutFingerprint()
+        assert first.layoutFingerprint() != new ChioneDescriptor("test.Interned", 1, [
+                new SnowFlakeField("a", "int"), new SnowFlakeField("b", "int")
+        ]).layoutFingerprint()
+    }
+
+    @Test
+    void serializerDispatch() {
+        def registry = new SerializerRegistry(Collections.emptyMap())
+        def lists = registry.serializerFor(new ArrayList<Object>())
+        def maps = registry.serializerFor(new HashMap<Object, Object>())
+        def queues = registry.serializerFor(new ArrayDeque<Object>())
+
+        def subclass = new ArrayList<Object>() {}
+        subclass.add("a")
+        def sorted = new TreeMap<Object, Object>([a: 1])
+        def queue = new PriorityQueue<Object>([3, 1, 2])
+        def unmodifiable = Collections.unmodifiableList(["x"])
+
+        assert registry.serializerFor(subclass).is(lists)
+        assert registry.serializerFor(subclass).is(lists)
+        assert registry.serializerFor(unmodifiable).is(lists)
+        assert registry.serializerFor(sorted).is(maps)
+        assert registry.serializerFor(queue).is(queues)
+
+        def file = new InMemoryDataFile()
+        def chione = new Chione(registry, ChioneFormat.DEFAULT)
+        chione.serialize(new ArrayList<Object>([subclass, sorted, queue, unmodifiable]), file)
+        file.seek(0)
+        List<Object> loaded = chione.deserialize(file, false)
+
+        assert loaded.collect { it.getClass() } == [ArrayList, HashMap, ArrayDeque, ArrayList]
+        assert loaded[0] == ["a"] && loaded[1] == [a: 1] && loaded[2].sort() == [1, 2, 3] && loaded[3] == ["x"]
+
+        def other = new SerializerRegistry(Collections.emptyMap())
+        def descriptor = new ChioneDescriptor("\$ArrayList")
+        assert descriptor.boundSerializer(registry) == null
+        assert registry.getSerializer(descriptor).is(lists)
+        assert descriptor.boundSerializer(registry).is(lists)
+        assert descriptor.boundSerializer(other) == null
+        assert other.getSerializer(descriptor).is(other.serializerFor(new ArrayList<Object>()))
+        assert registry.getSerializer(descriptor).is(lists)
+
+        try {
+            registry.getSerializer(new ChioneDescriptor("test.Unknown"))
+            assert false
+        } catch (ChioneException ignored) {
+        }
+    }
+
+    @Test
+    void generatedLayoutsAreKnown() {
+        def module = oneFieldModule("int")
+        def entry = module.factory().createEntry()
+        entry.data(42)
+        def file = new InMemoryDataFile()
+        new Chione(module.createSerializers(), ChioneFormat.DEFAULT).serialize(new ArrayList<Object>([entry]), file)
+
+        def serializers = module.createSerializers()
+        def decoded = []
+        def registry = new SerializerRegistry(serializers) {
+            @Override
+            Object deserialize(DeserializationContext context) {
+                decoded.add(context.descriptor().getClassName())
+                return super.deserialize(context)
+            }
+        }
+        def descriptor = serializers["test.SomeEntry"].descriptor()
+        assert registry.known(descriptor.layoutFingerprint()).is(descriptor)
+
+        file.seek(0)
+        List<Object> loaded = new Chione(registry, ChioneFormat.DEFAULT).deserialize(file, false)
+        assert loaded[0].data() == 42
+        assert decoded == ["\$ArrayList", "test.SomeEntry"]
+    }
+
+    @Test
+    void referenceArraySerializers() {
+        def registry = new SerializerRegistry(Collections.emptyMap())
+        def strings = registry.serializerFor(["a"] as String[])
+        assert registry.serializerFor(["b"] as String[]).is(strings)
+        assert registry.getSerializer(new ChioneDescriptor(String[].name)).is(strings)
+        assert !new SerializerRegistry(Collections.emptyMap()).serializerFor(["a"] as String[]).is(strings)
+
+        def file = new InMemoryDataFile()
+        def chione = new Chione(registry, ChioneFormat.DEFAULT)
+        chione.serialize(new ArrayList<Object>([["a", "b"] as String[], [[1] as Integer[]] as Object[]]), file)
+        file.seek(0)
+        List<Object> loaded = chione.deserialize(file, false)
+        assert loaded[0] == ["a", "b"] as String[]
+        assert loaded[1].getClass() == Object[] && loaded[1][0] == [1] as Integer[]
+    }
+
+    @Test
+    void registriesAreCollected() {
+        def registries = (0..<3).collect {
+            def registry = new SerializerRegistry(Collections.emptyMap())
+            def chione = new Chione(registry, ChioneFormat.DEFAULT)
+            def file = new InMemoryDataFile()
+            chione.serialize(new ArrayList<Object>([new HashMap<Object, Object>([a: 1]), "x", [1] as int[]]), file)
+            file.seek(0)
+            assert chione.deserialize(file, false)[0] == [a: 1]
+            new WeakReference<Object>(registry)
+        }
+        for (int i = 0; i < 10 && registries.any { it.get() != null }; i++) {
+            System.gc()
+            Thread.sleep(10)
+        }
+        assert registries.every { it.get() == null }
+    }
+
+    @Test
+    void arrays() {
+        def root = new ArrayList<Object>([
+                [true, false, true] as boolean[],
+                [1, -2, 127] as byte[],
+                [1, -2, 32767] as short[],
+                ['a', 'z'] as char[],
+                [1, -2, Integer.MAX_VALUE] as int[],
+                [1L, Long.MIN_VALUE] as long[],
+                [1.5f, Float.NaN] as float[],
+                [2.5d, -0.0d] as double[],
+                ["a", null, "a"] as String[],
+                [[1, 2] as int[], null] as int[][],
+                new Object[0]
+        ])
+        def chione = new Chione()
+        for (int i = 0; i < 2; i++) {
+            def file = new InMemoryDataFile()
+            chione.serialize(root, file)
+            file.seek(0)
+            List<Object> loaded = chione.deserialize(file, false)
+
+            assert loaded.collect { it.getClass() } == root.collect { it.getClass() }
+            root.eachWithIndex { array, index ->
+                assert Objects.deepEquals(loaded[index], array)
+            }
+            assert loaded[8][0].is(loaded[8][2])
+        }
+    }
+
+    @Test
+    void concurrentLoads() {
+        for (DataFile file : [new InMemoryDataFile(), new CompressedDataFile(new InMemoryDataFile(), 256, Deflater.BEST_SPEED, 2)]) {
+            def module = oneFieldModule("Object", file)
+            def entry = module.factory().createEntry()
+            def items = (0..<2000).collect { "item $it".toString() }
+            entry.data([new ArrayList<Object>(items), new Lazy<Object>(new ArrayList<Object>(items))])
+            module.chione().save(entry)
+
+            def executor = Executors.newFixedThreadPool(8)
+            try {
+                def futures = (0..<64).collect {
+                    executor.submit({
+                        def loaded = module.chione().load()
+                        assert loaded.data()[0] == items
+                        assert loaded.data()[1].get() == items
+                        true
+                    } as java.util.concurrent.Callable<Boolean>)
+                }
+                futures.each { assert it.get() }
+            } finally {
+                executor.shutdown()
+            }
+        }
+    }
+
     @Test
     void selfReferencing() {
         def module = oneFieldModule("SomeEntry")
@@ -657,6 +1505,413 @@ class AnnotationProcessorTest {
         assert nextEntry.field3() == "f3"
     }
 
+    @Test
+    @Parameters([
+            "int | long | 42 | 42L",
+            "int | double | -7 | -7d",
+            "byte | int | (byte) -3 | -3",
+            "char | long | (char) 'a' | 97L",
+            "float | double | 1.5f | 1.5d",
+            "long | float | 1L << 40 | (float) (1L << 40)",
+            "int | Integer | 42 | 42",
+            "short | Long | (short) 5 | 5L",
+            "Integer | int | 42 | 42",
+            "Integer | long | null | 0L",
+            "Character | int | (char) 'b' | 98",
+            "String | lazy String | 'text' | 'text'",
+            "lazy String | String | 'text' | 'text'",
+            "int | lazy Integer | 42 | 42",
+            "lazy Long | long | 42L | 42L",
+            "long | int | 42L | 0",
+            "String | int | '42' | 0",
+    ])
+    void typeChange(String stored, String expected, String storedValue, String expectedValue) {
+        def dataFile = new InMemoryDataFile()
+        def storedModule = typedFieldModule(stored, dataFile)
+        def expectedModule = typedFieldModule(expected, dataFile)
+
+        def entry = storedModule.factory().createEntry()
+        entry.data(Eval.me(storedValue))
+        entry.other("other")
+        storedModule.chione().save(entry)
+
+        def loaded = expectedModule.chione().load()
+        def value = Eval.me(expectedValue)
+        assert loaded.data() == value
+        assert loaded.data()?.getClass() == value?.getClass()
+        assert loaded.other() == "other"
+    }
+
+    private ChioneModule<?, ?> typedFieldModule(String type, DataFile dataFile) {
+        def lazy = type.startsWith("lazy ")
+        type = type - "lazy "
+        oneEntryModule """
+                    package test;
+
+                    import com.github.artyomcool.chione.Fetch;
+                    import com.github.artyomcool.chione.Ice;
+                    
+                    @Ice
+                    public interface SomeEntry {
+                        
+                        ${lazy ? "@Fetch(Fetch.Type.LAZY)" : ""}
+                        $type data();
+                        
+                        void data($type t);
+                        
+                        String other();
+                        
+                        void other(String t);
+                        
+                    }
+
+                """, dataFile
+    }
+
+    @Test
+    @Parameters([
+            "0",    // fixed-width references
+            "4",    // fixed-width references, contiguous index
+            "43",   // varint references
+            "107",  // default
+            "59",   // inline values
+            "123",  // inline values, fixed fields have no effect
+    ])
+    void layoutChange(int flags) {
+        def entry = { String fields ->
+            """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+                    
+                    @Ice
+                    public interface SomeEntry {
+                        $fields
+                    }
+                """
+        }
+        def field = { String type, String name -> "$type $name(); void $name($type v);" }
+        def factoryClass =
+                """
+                    package test;
+                    
+                    import com.github.artyomcool.chione.Factory;
+                    
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+                        
+                        SomeEntry createEntry();
+                        
+                    }
+                """
+
+        def dataFile = new InMemoryDataFile()
+        def oldModule = generateModule(dataFile, "test.SomeFactoryModule", entry(
+                field("int", "a") + field("String", "b") + field("long", "c") + field("byte", "d")
+                        + field("String", "e") + field("Object", "f") + field("int", "g") + field("String", "z")
+        ), factoryClass)
+        def newModule = generateModule(dataFile, "test.SomeFactoryModule", entry(
+                field("int", "a") + field("String", "ee") + field("int", "g") + field("String", "h")
+        ), factoryClass)
+
+        def old = oldModule.factory().createEntry()
+        old.a(1)
+        old.b("b")
+        old.c(3L)
+        old.d((byte) 4)
+        old.e("e")
+        old.f(old)
+        old.g(7)
+        old.z("z")
+        def chione = new Chione(oldModule.createSerializers(), ChioneFormat.fromFlags(flags))
+        chione.serialize([old, old.b(), old.z()], dataFile)
+        dataFile.seek(0)
+
+        def reader = new Chione(newModule.createSerializers())
+        List<Object> loaded = reader.deserialize(dataFile, false)
+        def next = loaded[0]
+        assert next.a() == 1
+        assert next.ee() == null
+        assert next.g() == 7
+        assert next.h() == null
+        assert loaded[1] == "b" && loaded[2] == "z"
+
+        def descriptor = newModule.createSerializers()["test.SomeEntry"].descriptor()
+        assert descriptor.layoutFingerprint() == new ChioneDescriptor(descriptor.version(), descriptor.subDescriptors()).layoutFingerprint()
+
+        // the stored layout is known only to the registry that has read it
+        def stored = oldModule.createSerializers()["test.SomeEntry"].descriptor()
+        assert reader.@registry.known(stored.layoutFingerprint()) == stored
+        assert new SerializerRegistry(newModule.createSerializers()).known(stored.layoutFingerprint()) == null
+
+        dataFile.seek(0)
+        def again = reader.deserialize(dataFile, false)
+        assert again[0].a() == 1 && again[0].g() == 7 && again[1] == "b"
+    }
+
+    @Test
+    void droppedReferencesAreSeeked() {
+        def entry = { String fields ->
+            """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice
+                    public interface SomeEntry {
+                        $fields
+                        int z(); void z(int v);
+                    }
+                """
+        }
+        def factoryClass =
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Factory;
+
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+
+                        SomeEntry createEntry();
+
+                    }
+                """
+        def dropped = (0..<20).collect { "String s$it(); void s$it(String v);" }.join(" ")
+        def oldModule = generateModule("test.SomeFactoryModule", entry(dropped), factoryClass)
+        def newModule = generateModule("test.SomeFactoryModule", entry(""), factoryClass)
+
+        def entries = (0..<100).collect { i ->
+            def old = oldModule.factory().createEntry()
+            (0..<20).each { old."s$it"("value $i $it".toString()) }
+            old.z(i)
+            old
+        }
+
+        def bytesRead = { ChioneFormat format ->
+            def file = new InMemoryDataFile()
+            new Chione(oldModule.createSerializers(), format).serialize(new ArrayList<Object>(entries), file)
+            file.seek(0)
+            int count = 0
+            def counting = ProxyGenerator.INSTANCE.instantiateDelegate(
+                    [readByte: { count++; file.readByte() }], [DataInput], file) as DataInput
+            List<Object> loaded = new Chione(newModule.createSerializers()).deserialize(counting, false)
+            assert loaded.collect { it.z() } == (0..<100)
+            count
+        }
+
+        assert bytesRead(ChioneFormat.DEFAULT.without(ChioneFormat.FIXED_FIELDS)) >=
+                bytesRead(ChioneFormat.DEFAULT) + 20 * 100
+    }
+
+    @Test
+    void strategyCollision() {
+        def module = oneEntryModule """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+
+                    @Ice
+                    public interface SomeEntry {
+                        int a(); void a(int v);
+                        String b(); void b(String v);
+                    }
+                """
+        def registry = new SnowFlakeRegistry(module.createSerializers()["test.SomeEntry"].descriptor())
+
+        // two different layouts with the same fingerprint
+        def onlyA = new ChioneDescriptor("test.SomeEntry", 1, [new SnowFlakeField("a", "int")], 42L)
+        def onlyB = new ChioneDescriptor("test.SomeEntry", 1, [new SnowFlakeField("b", "java.lang.String")], 42L)
+
+        3.times {
+            assert registry.getStrategy(onlyA).@program.@present == [true, false] as boolean[]
+            assert registry.getStrategy(onlyB).@program.@present == [false, true] as boolean[]
+        }
+        assert registry.getStrategy(onlyA).is(registry.getStrategy(onlyA))
+        assert registry.@strategies.size() == 1
+
+        (0..<SnowFlakeRegistry.MAX_STRATEGIES * 2).each {
+            def layout = new ChioneDescriptor("test.SomeEntry", 1, [new SnowFlakeField("a", "int")], it + 100L)
+            assert registry.getStrategy(layout).@program.@present == [true, false] as boolean[]
+        }
+        assert registry.@strategies.size() == SnowFlakeRegistry.MAX_STRATEGIES
+    }
+
+    @Test
+    void separateClassLoaders() {
+        def entry = { String fields ->
+            """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+                    
+                    @Ice
+                    public interface SomeEntry {
+                        $fields
+                    }
+                """
+        }
+
+        def oldModule = oneEntryModule(entry("int a(); void a(int v); String b(); void b(String v);"))
+        def newModule = oneEntryModule(entry("int a(); void a(int v); long c(); void c(long v);"))
+        assert oldModule.getClass().classLoader != newModule.getClass().classLoader
+
+        def oldEntry = oldModule.factory().createEntry()
+        oldEntry.a(1)
+        oldEntry.b("b")
+        def newEntry = newModule.factory().createEntry()
+        newEntry.a(2)
+        newEntry.c(3L)
+
+        def oldFile = new InMemoryDataFile()
+        oldModule.@chione.serialize(oldEntry, oldFile)
+        def newFile = new InMemoryDataFile()
+        newModule.@chione.serialize(newEntry, newFile)
+
+        3.times {
+            oldFile.seek(0)
+            def oldByNew = newModule.@chione.deserialize(oldFile, false)
+            newFile.seek(0)
+            def newByOld = oldModule.@chione.deserialize(newFile, false)
+            newFile.seek(0)
+            def newByNew = newModule.@chione.deserialize(newFile, false)
+
+            assert oldByNew.getClass().classLoader == newModule.getClass().classLoader
+            assert oldByNew.a() == 1 && oldByNew.c() == 0L
+            assert newByOld.a() == 2 && newByOld.b() == null
+            assert newByNew.a() == 2 && newByNew.c() == 3L
+        }
+    }
+
+    @Test
+    void mappedDataFile() {
+        def entryClass =
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+                    
+                    @Ice
+                    public interface SomeEntry {
+                        
+                        String data();
+                        
+                        void data(String data);
+                        
+                        long[] numbers();
+                        
+                        void numbers(long[] numbers);
+                        
+                    }
+
+                """
+
+        def factoryClass =
+                """
+                    package test;
+                    
+                    import com.github.artyomcool.chione.Factory;
+                    
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+                        
+                        SomeEntry createEntry();
+                        
+                    }
+                """
+
+        def file = File.createTempFile("chione", ".snow")
+        file.deleteOnExit()
+
+        def dataFile = new MappedDataFile(file)
+        def module = generateModule(dataFile, "test.SomeFactoryModule", entryClass, factoryClass)
+
+        def entry = module.factory().createEntry()
+        entry.data("Mapped")
+        entry.numbers((0..100_000).collect { it * 31L } as long[])
+
+        module.chione().save(entry)
+        dataFile.close()
+
+        assert file.length() == dataFile.size()
+
+        def reopened = new MappedDataFile(file)
+        def nextModule = generateModule(reopened, "test.SomeFactoryModule", entryClass, factoryClass)
+        def nextEntry = nextModule.chione().load()
+        reopened.close()
+
+        assert nextEntry.data() == "Mapped"
+        assert nextEntry.numbers() == entry.numbers()
+    }
+
+    @Test
+    @Parameters(["mapped", "memory", "buffer"])
+    void smallerImageOverLarger(String kind) {
+        def entryClass =
+                """
+                    package test;
+
+                    import com.github.artyomcool.chione.Ice;
+                    
+                    @Ice
+                    public interface SomeEntry {
+                        
+                        long[] numbers();
+                        
+                        void numbers(long[] numbers);
+                        
+                    }
+
+                """
+
+        def factoryClass =
+                """
+                    package test;
+                    
+                    import com.github.artyomcool.chione.Factory;
+                    
+                    @Factory(root = SomeEntry.class)
+                    public interface SomeFactory {
+                        
+                        SomeEntry createEntry();
+                        
+                    }
+                """
+
+        def file = File.createTempFile("chione", ".snow")
+        file.deleteOnExit()
+
+        DataFile dataFile
+        switch (kind) {
+            case "mapped": dataFile = new MappedDataFile(file); break
+            case "memory": dataFile = new InMemoryDataFile(); break
+            default: dataFile = new ByteBufferDataFile(); break
+        }
+        def module = generateModule(dataFile, "test.SomeFactoryModule", entryClass, factoryClass)
+
+        def large = module.factory().createEntry()
+        large.numbers((0..100_000).collect { it * 31L } as long[])
+        module.chione().save(large)
+        def largeSize = dataFile.size()
+
+        def small = module.factory().createEntry()
+        small.numbers([1L, 2L, 3L] as long[])
+        module.chione().save(small)
+
+        assert dataFile.size() < largeSize
+        assert module.chione().load().numbers() == [1L, 2L, 3L] as long[]
+
+        if (dataFile instanceof MappedDataFile) {
+            dataFile.close()
+            assert file.length() == dataFile.size()
+
+            def reopened = new MappedDataFile(file)
+            def nextModule = generateModule(reopened, "test.SomeFactoryModule", entryClass, factoryClass)
+            assert nextModule.chione().load().numbers() == [1L, 2L, 3L] as long[]
+            reopened.close()
+        }
+    }
+
     @Test
     void lazy() {
         def module = oneFieldModule("com.github.artyomcool.chione.Lazy<String>")
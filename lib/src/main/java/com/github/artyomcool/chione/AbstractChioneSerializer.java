@@ -27,14 +27,16 @@ package com.github.artyomcool.chione;
 abstract class AbstractChioneSerializer<T> implements ChioneSerializer<T> {
 
     private final String className;
+    private final ChioneDescriptor descriptor;
 
     AbstractChioneSerializer(String className) {
         this.className = className;
+        this.descriptor = new ChioneDescriptor(className);
     }
 
     @Override
     public final ChioneDescriptor describe(T obj) {
-        return new ChioneDescriptor(className);
+        return descriptor;
     }
 
     String getClassName() {
@@ -38,7 +38,7 @@ abstract class AbstractCollectionSerializer<T extends Collection<Object>> extend
     @Override
     public void writeContent(T collection, ChioneDataOutput dataOutput) {
         int size = collection.size();
-        dataOutput.write(size);
+        dataOutput.writeCount(size);
         if (collection instanceof RandomAccess && collection instanceof List) {
             List<?> list = (List<?>) collection;
             for (int i = 0; i < size; i++) {
@@ -54,7 +54,7 @@ abstract class AbstractCollectionSerializer<T extends Collection<Object>> extend
     @Override
     public T deserialize(DeserializationContext context) {
         ChioneDataInput input = context.input();
-        int size = input.readInt();
+        int size = input.readCount();
         T result = context.hookCreation(create(size));
         for (int i = 0; i < size; i++) {
             result.add(input.readReference());
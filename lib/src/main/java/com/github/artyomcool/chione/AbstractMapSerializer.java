@@ -35,7 +35,7 @@ abstract class AbstractMapSerializer<T extends Map<Object, Object>> extends Abst
     @Override
     public void writeContent(T map, ChioneDataOutput dataOutput) {
         int size = map.size();
-        dataOutput.write(size);
+        dataOutput.writeCount(size);
         for (Map.Entry<Object, Object> entry : map.entrySet()) {
             dataOutput.writeReference(entry.getKey());
             dataOutput.writeReference(entry.getValue());
@@ -45,7 +45,7 @@ abstract class AbstractMapSerializer<T extends Map<Object, Object>> extends Abst
     @Override
     public T deserialize(DeserializationContext context) {
         ChioneDataInput input = context.input();
-        int size = input.readInt();
+        int size = input.readCount();
         T result = context.hookCreation(create(size));
         for (int i = 0; i < size; i++) {
             Object key = input.readReference();
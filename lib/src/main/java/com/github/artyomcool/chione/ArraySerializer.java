@@ -26,213 +26,309 @@ package com.github.artyomcool.chione;
 
 import java.lang.reflect.Array;
 
-//TODO optimize by caching on the registry side specific instances
-public class ArraySerializer implements ChioneSerializer<Object> {
+/**
+ * Serializer of one array type. Primitive contents are written and read as blocks.
+ */
+public abstract class ArraySerializer<T> implements ChioneSerializer<T> {
 
-    public static final ArraySerializer INSTANCE = new ArraySerializer();
+    public static final ArraySerializer<boolean[]> BOOLEANS = new ArraySerializer<boolean[]>(boolean[].class) {
+        @Override
+        int length(boolean[] array) {
+            return array.length;
+        }
 
-    private ArraySerializer() {
-    }
+        @Override
+        boolean[] create(int length) {
+            return new boolean[length];
+        }
 
-    @Override
-    public ChioneDescriptor describe(Object obj) {
-        return new ChioneDescriptor(obj.getClass().getName());
-    }
+        @Override
+        void writeElements(boolean[] array, ChioneDataOutput output) {
+            byte[] bytes = new byte[array.length];
+            for (int i = 0; i < array.length; i++) {
+                bytes[i] = array[i] ? (byte) 1 : (byte) 0;
+            }
+            output.write(bytes, 0, bytes.length);
+        }
 
-    @Override
-    public void writeContent(Object obj, ChioneDataOutput dataOutput) {
-        switch (obj.getClass().getName().charAt(1)) {
-            case 'Z':
-                writeBooleanArray((boolean[]) obj, dataOutput);
-                break;
-            case 'B':
-                writeByteArray((byte[]) obj, dataOutput);
-                break;
-            case 'S':
-                writeShortArray((short[]) obj, dataOutput);
-                break;
-            case 'C':
-                writeCharArray((char[]) obj, dataOutput);
-                break;
-            case 'I':
-                writeIntArray((int[]) obj, dataOutput);
-                break;
-            case 'J':
-                writeLongArray((long[]) obj, dataOutput);
-                break;
-            case 'F':
-                writeFloatArray((float[]) obj, dataOutput);
-                break;
-            case 'D':
-                writeDoubleArray((double[]) obj, dataOutput);
-                break;
-            case 'L':
-            case '[':
-                writeRefArray((Object[]) obj, dataOutput);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported type: " + obj);
+        @Override
+        void readElements(boolean[] array, ChioneDataInput input) {
+            byte[] bytes = new byte[array.length];
+            input.readBytes(bytes, 0, bytes.length);
+            for (int i = 0; i < array.length; i++) {
+                array[i] = bytes[i] > 0;
+            }
         }
-    }
+    };
 
-    @Override
-    public Object deserialize(DeserializationContext context) {
-        ChioneDataInput input = context.input();
-        String className = context.descriptor().getClassName();
-        Class<?> clazz;
-        try {
-            clazz = Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            throw new ChioneException(e);
+    public static final ArraySerializer<byte[]> BYTES = new ArraySerializer<byte[]>(byte[].class) {
+        @Override
+        int length(byte[] array) {
+            return array.length;
         }
-        Object array = context.hookCreation(Array.newInstance(clazz.getComponentType(), input.readInt()));
-        switch (className.charAt(1)) {
-            case 'Z':
-                fillBooleanArray((boolean[]) array, input);
-                break;
-            case 'B':
-                fillByteArray((byte[]) array, input);
-                break;
-            case 'S':
-                fillShortArray((short[]) array, input);
-                break;
-            case 'C':
-                fillCharArray((char[]) array, input);
-                break;
-            case 'I':
-                fillIntArray((int[]) array, input);
-                break;
-            case 'J':
-                fillLongArray((long[]) array, input);
-                break;
-            case 'F':
-                fillFloatArray((float[]) array, input);
-                break;
-            case 'D':
-                fillDoubleArray((double[]) array, input);
-                break;
-            case 'L':
-            case '[':
-                fillRefArray((Object[]) array, input);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported type: " + className);
+
+        @Override
+        byte[] create(int length) {
+            return new byte[length];
         }
-        return array;
-    }
 
-    private void writeBooleanArray(boolean[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (boolean i : array) {
-            output.write((byte) (i ? 1 : 0));
+        @Override
+        void writeElements(byte[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
         }
-    }
 
-    private void writeByteArray(byte[] array, ChioneDataOutput output) {
-        output.write(array);
-    }
+        @Override
+        void readElements(byte[] array, ChioneDataInput input) {
+            input.readBytes(array, 0, array.length);
+        }
+    };
 
-    private void writeShortArray(short[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (short i : array) {
-            output.write(i);
+    public static final ArraySerializer<short[]> SHORTS = new ArraySerializer<short[]>(short[].class) {
+        @Override
+        int length(short[] array) {
+            return array.length;
         }
-    }
 
-    private void writeCharArray(char[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (char i : array) {
-            output.write((short) i);
+        @Override
+        short[] create(int length) {
+            return new short[length];
         }
-    }
 
-    private void writeIntArray(int[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (int i : array) {
-            output.write(i);
+        @Override
+        void writeElements(short[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
         }
-    }
 
-    private void writeLongArray(long[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (long i : array) {
-            output.write(i);
+        @Override
+        void readElements(short[] array, ChioneDataInput input) {
+            input.readShorts(array, 0, array.length);
         }
-    }
+    };
 
-    private void writeFloatArray(float[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (float i : array) {
-            output.write(Float.floatToRawIntBits(i));
+    public static final ArraySerializer<char[]> CHARS = new ArraySerializer<char[]>(char[].class) {
+        @Override
+        int length(char[] array) {
+            return array.length;
         }
-    }
 
-    private void writeDoubleArray(double[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (double i : array) {
-            output.write(Double.doubleToRawLongBits(i));
+        @Override
+        char[] create(int length) {
+            return new char[length];
         }
-    }
 
-    private void writeRefArray(Object[] array, ChioneDataOutput output) {
-        output.write(array.length);
-        for (Object i : array) {
-            output.writeReference(i);
+        @Override
+        void writeElements(char[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
         }
-    }
 
-    private void fillBooleanArray(boolean[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readByte() > 0;
+        @Override
+        void readElements(char[] array, ChioneDataInput input) {
+            input.readChars(array, 0, array.length);
         }
-    }
+    };
 
-    //TODO optimize
-    private void fillByteArray(byte[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readByte();
+    public static final ArraySerializer<int[]> INTS = new ArraySerializer<int[]>(int[].class) {
+        @Override
+        int length(int[] array) {
+            return array.length;
         }
-    }
 
-    private void fillShortArray(short[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readShort();
+        @Override
+        int[] create(int length) {
+            return new int[length];
         }
-    }
 
-    private void fillCharArray(char[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = (char) input.readShort();
+        @Override
+        void writeElements(int[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
         }
-    }
 
-    private void fillIntArray(int[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readInt();
+        @Override
+        void readElements(int[] array, ChioneDataInput input) {
+            input.readInts(array, 0, array.length);
+        }
+    };
+
+    public static final ArraySerializer<long[]> LONGS = new ArraySerializer<long[]>(long[].class) {
+        @Override
+        int length(long[] array) {
+            return array.length;
+        }
+
+        @Override
+        long[] create(int length) {
+            return new long[length];
         }
-    }
 
-    private void fillLongArray(long[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readLong();
+        @Override
+        void writeElements(long[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
         }
+
+        @Override
+        void readElements(long[] array, ChioneDataInput input) {
+            input.readLongs(array, 0, array.length);
+        }
+    };
+
+    public static final ArraySerializer<float[]> FLOATS = new ArraySerializer<float[]>(float[].class) {
+        @Override
+        int length(float[] array) {
+            return array.length;
+        }
+
+        @Override
+        float[] create(int length) {
+            return new float[length];
+        }
+
+        @Override
+        void writeElements(float[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
+        }
+
+        @Override
+        void readElements(float[] array, ChioneDataInput input) {
+            input.readFloats(array, 0, array.length);
+        }
+    };
+
+    public static final ArraySerializer<double[]> DOUBLES = new ArraySerializer<double[]>(double[].class) {
+        @Override
+        int length(double[] array) {
+            return array.length;
+        }
+
+        @Override
+        double[] create(int length) {
+            return new double[length];
+        }
+
+        @Override
+        void writeElements(double[] array, ChioneDataOutput output) {
+            output.write(array, 0, array.length);
+        }
+
+        @Override
+        void readElements(double[] array, ChioneDataInput input) {
+            input.readDoubles(array, 0, array.length);
+        }
+    };
+
+    private final ChioneDescriptor descriptor;
+
+    ArraySerializer(Class<?> arrayClass) {
+        this.descriptor = new ChioneDescriptor(arrayClass.getName());
     }
 
-    private void fillFloatArray(float[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = Float.intBitsToFloat(input.readInt());
+    /**
+     * @return serializer of the given array class; serializers of reference arrays are created on every call
+     * and cached by {@link SerializerRegistry}
+     */
+    public static ArraySerializer<?> forClass(Class<?> arrayClass) {
+        Class<?> componentType = arrayClass.getComponentType();
+        if (componentType == null) {
+            throw new IllegalArgumentException("Not an array: " + arrayClass);
+        }
+        if (!componentType.isPrimitive()) {
+            return new ReferenceArraySerializer(arrayClass);
+        }
+        if (componentType == boolean.class) {
+            return BOOLEANS;
+        }
+        if (componentType == byte.class) {
+            return BYTES;
         }
+        if (componentType == short.class) {
+            return SHORTS;
+        }
+        if (componentType == char.class) {
+            return CHARS;
+        }
+        if (componentType == int.class) {
+            return INTS;
+        }
+        if (componentType == long.class) {
+            return LONGS;
+        }
+        if (componentType == float.class) {
+            return FLOATS;
+        }
+        if (componentType == double.class) {
+            return DOUBLES;
+        }
+        throw new IllegalArgumentException("Unsupported type: " + arrayClass);
     }
 
-    private void fillDoubleArray(double[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = Double.longBitsToDouble(input.readLong());
+    /**
+     * Resolves the array class by its name; callers are expected to cache the result.
+     */
+    static ArraySerializer<?> forName(String className) {
+        try {
+            return forClass(Class.forName(className));
+        } catch (ClassNotFoundException e) {
+            throw new ChioneException(e);
         }
     }
 
-    private void fillRefArray(Object[] array, ChioneDataInput input) {
-        for (int i = 0; i < array.length; i++) {
-            array[i] = input.readReference();
+    @Override
+    public final ChioneDescriptor describe(T obj) {
+        return descriptor;
+    }
+
+    @Override
+    public final void writeContent(T obj, ChioneDataOutput dataOutput) {
+        dataOutput.writeCount(length(obj));
+        writeElements(obj, dataOutput);
+    }
+
+    @Override
+    public final T deserialize(DeserializationContext context) {
+        ChioneDataInput input = context.input();
+        T array = context.hookCreation(create(input.readCount()));
+        readElements(array, input);
+        return array;
+    }
+
+    abstract int length(T array);
+
+    abstract T create(int length);
+
+    abstract void writeElements(T array, ChioneDataOutput output);
+
+    abstract void readElements(T array, ChioneDataInput input);
+
+    private static class ReferenceArraySerializer extends ArraySerializer<Object[]> {
+
+        private final Class<?> componentType;
+
+        ReferenceArraySerializer(Class<?> arrayClass) {
+            super(arrayClass);
+            this.componentType = arrayClass.getComponentType();
+        }
+
+        @Override
+        int length(Object[] array) {
+            return array.length;
+        }
+
+        @Override
+        Object[] create(int length) {
+            return (Object[]) Array.newInstance(componentType, length);
+        }
+
+        @Override
+        void writeElements(Object[] array, ChioneDataOutput output) {
+            for (Object element : array) {
+                output.writeReference(element);
+            }
+        }
+
+        @Override
+        void readElements(Object[] array, ChioneDataInput input) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = input.readReference();
+            }
         }
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Growable in-memory {@link DataOutput} with the same encoding as the data files.
+ */
+@NotThreadSafe
+class ByteArrayDataOutput implements DataOutput {
+
+    private byte[] data;
+    private int size;
+
+    ByteArrayDataOutput(int initialCapacity) {
+        data = new byte[initialCapacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    int writeTo(DataOutput output) {
+        return output.write(data, 0, size);
+    }
+
+    @Override
+    public int write(byte b) {
+        ensureCapacity(DataInput.BYTE_SIZE);
+        data[size++] = b;
+        return DataInput.BYTE_SIZE;
+    }
+
+    @Override
+    public int write(short s) {
+        ensureCapacity(DataInput.SHORT_SIZE);
+        putShort(s);
+        return DataInput.SHORT_SIZE;
+    }
+
+    @Override
+    public int write(int i) {
+        ensureCapacity(DataInput.INT_SIZE);
+        putInt(i);
+        return DataInput.INT_SIZE;
+    }
+
+    @Override
+    public int write(long l) {
+        ensureCapacity(DataInput.LONG_SIZE);
+        putLong(l);
+        return DataInput.LONG_SIZE;
+    }
+
+    @Override
+    public int write(String s) {
+        int length = s.length();
+        if (length > 0xffff) {
+            throw new ChioneException("String is too long for the legacy encoding: " + length);
+        }
+        ensureCapacity(DataInput.SHORT_SIZE + length * DataInput.SHORT_SIZE);
+        putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            putShort((short) s.charAt(i));
+        }
+        return DataInput.SHORT_SIZE + length * DataInput.SHORT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] data) {
+        write(data.length);
+        return write(data, 0, data.length) + DataInput.INT_SIZE;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, data, size, length);
+        size += length;
+        return length;
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.SHORT_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putShort(src[i]);
+        }
+        return length * DataInput.SHORT_SIZE;
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.SHORT_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putShort((short) src[i]);
+        }
+        return length * DataInput.SHORT_SIZE;
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.INT_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putInt(src[i]);
+        }
+        return length * DataInput.INT_SIZE;
+    }
+
+    @Override
+    public int write(long[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.LONG_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putLong(src[i]);
+        }
+        return length * DataInput.LONG_SIZE;
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.INT_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putInt(Float.floatToRawIntBits(src[i]));
+        }
+        return length * DataInput.INT_SIZE;
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        ensureCapacity(length * DataInput.LONG_SIZE);
+        for (int i = offset; i < offset + length; i++) {
+            putLong(Double.doubleToRawLongBits(src[i]));
+        }
+        return length * DataInput.LONG_SIZE;
+    }
+
+    private void putShort(short s) {
+        data[size] = (byte) (s >> 8);
+        data[size + 1] = (byte) s;
+        size += DataInput.SHORT_SIZE;
+    }
+
+    private void putInt(int i) {
+        data[size] = (byte) (i >> 24);
+        data[size + 1] = (byte) (i >> 16);
+        data[size + 2] = (byte) (i >> 8);
+        data[size + 3] = (byte) i;
+        size += DataInput.INT_SIZE;
+    }
+
+    private void putLong(long l) {
+        putInt((int) (l >> 32));
+        putInt((int) l);
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = size + additional;
+        if (required < 0) {
+            throw new ChioneException("Buffer is too large");
+        }
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, data.length * 3 / 2));
+        }
+    }
+
+}
@@ -24,137 +24,292 @@
 
 package com.github.artyomcool.chione;
 
+import net.jcip.annotations.ThreadSafe;
+
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+/**
+ * Immutable configuration of serialization, meant to be shared: every serialization and deserialization
+ * works on its own state, so a {@code Chione} may be used by any number of threads at once.
+ * Concurrent readers of one image must use their own {@link DataInput#duplicate() duplicates} of it.
+ */
+@ThreadSafe
 public class Chione {
 
-    private static final int TABLE_BLOCK_SIZE = 1024;
+    static final int TABLE_BLOCK_SIZE = 1024;
     private static final int SIGNATURE = 0x524f434b;
+    private static final int FLAGGED_SIGNATURE = 0x524f4346;
 
     private final ChioneSerializer<Object> serializer;
+    private final SerializerRegistry registry;
+    private final ChioneFormat format;
+    private final DeduplicationPolicy deduplication;
+    private final ChioneDictionary dictionary;
 
     public Chione() {
         this(Collections.<String, ChioneSerializer<?>>emptyMap());
     }
 
     public Chione(Map<String, ChioneSerializer<?>> serializers) {
-        this(new SerializerRegistry(serializers));
+        this(serializers, ChioneFormat.DEFAULT);
+    }
+
+    public Chione(Map<String, ChioneSerializer<?>> serializers, ChioneFormat format) {
+        this(new SerializerRegistry(serializers), format);
+    }
+
+    public Chione(Map<String, ChioneSerializer<?>> serializers, ChioneFormat format, DeduplicationPolicy deduplication) {
+        this(new SerializerRegistry(serializers), format, deduplication);
+    }
+
+    public Chione(Map<String, ChioneSerializer<?>> serializers,
+                  ChioneFormat format,
+                  DeduplicationPolicy deduplication,
+                  ChioneDictionary dictionary) {
+        this(new SerializerRegistry(serializers), format, deduplication, dictionary);
     }
 
     public Chione(ChioneSerializer<Object> serializer) {
+        this(serializer, ChioneFormat.DEFAULT);
+    }
+
+    /**
+     * @param format format of the written images; images are read in the format recorded in their header
+     */
+    public Chione(ChioneSerializer<Object> serializer, ChioneFormat format) {
+        this(serializer, format, DeduplicationPolicy.DEFAULT);
+    }
+
+    /**
+     * @param deduplication objects written once per equal value instead of once per instance
+     */
+    public Chione(ChioneSerializer<Object> serializer, ChioneFormat format, DeduplicationPolicy deduplication) {
+        this(serializer, format, deduplication, ChioneDictionary.EMPTY);
+    }
+
+    /**
+     * @param dictionary objects with predefined references, used by images with {@link ChioneFormat#STATIC_DICTIONARY};
+     *                   readers of such images must use the same dictionary or its extension
+     */
+    public Chione(ChioneSerializer<Object> serializer,
+                  ChioneFormat format,
+                  DeduplicationPolicy deduplication,
+                  ChioneDictionary dictionary) {
         this.serializer = serializer;
+        this.registry = serializer instanceof SerializerRegistry ? (SerializerRegistry) serializer : null;
+        this.format = format;
+        this.deduplication = deduplication;
+        this.dictionary = dictionary;
     }
 
     public void serialize(Object rock, DataOutput output) {
-        Recollection<Object> recollection = new RecollectionRegistry();
-        ChioneRegistry registry = new ChioneRegistry(recollection);
-        ChioneDataOutput chioneOutput = new ChioneOutputWrapper(output, registry);
+        newSession().serialize(rock, output);
+    }
+
+    /**
+     * @return a session that keeps its registries, tables and buffers between graphs; it may be used by one thread
+     */
+    public ChioneSession newSession() {
+        return new ChioneSession(this);
+    }
+
+    /**
+     * Serializes the graph encoding object contents on {@code parallelism} tasks of the {@code executor}.
+     * The image is readable the same way as a sequentially written one, though objects are laid out
+     * in a different order. All the serializers must support concurrent writing; the built-in ones do.
+     * <p>
+     * The output is written by one task at a time, but not always by the calling thread.
+     */
+    public void serialize(Object rock, DataOutput output, Executor executor, int parallelism) {
+        if (parallelism <= 1) {
+            serialize(rock, output);
+            return;
+        }
+
+        ConcurrentChioneRegistry registry = new ConcurrentChioneRegistry(deduplication, dictionary(format));
+        ChioneDataOutput chioneOutput = new ChioneOutputWrapper(output, registry, format);
 
-        chioneOutput.write(SIGNATURE);
-        chioneOutput.writeReference(rock);
+        writeHeader(chioneOutput, rock);
 
-        int objectsOffset = poll(chioneOutput, registry);
+        int[] offsets = new ParallelSerialization(this, format, chioneOutput, registry).run(executor, parallelism);
 
-        chioneOutput.write(objectsOffset);
-        chioneOutput.write(SIGNATURE);
+        writeTrailer(chioneOutput, writeOffsets(chioneOutput, offsets));
     }
 
+    /**
+     * @param lazy if {@code true}, the object table is decoded block by block on demand and only the inflated objects
+     *             are tracked, so the cost of loading is proportional to the reached part of the graph.
+     *             Objects are inflated when they are first dereferenced: eager fields are resolved together
+     *             with their owner, {@link Lazy} fields on {@link Lazy#get()}.
+     *             The input must stay open while the graph is used.
+     */
     public <T> T deserialize(DataInput input, boolean lazy) {
-        int size = input.size();
+        ChioneFormat format = readFormat(input);
+        ChioneDictionary dictionary = readDictionary(input, format);
+        int startPos = input.pos();
 
-        checkSignature(input.readInt());
+        int objectsOffset = readTableOffset(input);
+        ObjectTable objectsTable = format.has(ChioneFormat.CONTIGUOUS_INDEX)
+                ? ObjectTable.contiguous(input, objectsOffset, lazy)
+                : ObjectTable.linked(input, objectsOffset, format, lazy);
+
+        input.seek(startPos);
+
+        ChioneInputWrapper wrapper = new ChioneInputWrapper(serializer, input, objectsTable, format, dictionary);
+        return wrapper.readReference();
+    }
+
+    /**
+     * Eagerly deserializes the graph on {@code parallelism} tasks of the {@code executor}, each reading its own
+     * {@link DataInput#duplicate()} of the input. The whole object table is inflated, including objects
+     * reachable only through {@link Lazy} values (the {@link Lazy} values themselves stay unloaded).
+     * All the serializers must support concurrent reading; the built-in ones do.
+     */
+    public <T> T deserialize(DataInput input, Executor executor, int parallelism) {
+        if (parallelism <= 1) {
+            return deserialize(input, false);
+        }
+
+        ChioneFormat format = readFormat(input);
+        ChioneDictionary dictionary = readDictionary(input, format);
         int startPos = input.pos();
 
-        input.seek(size - DataInput.INT_SIZE * 2);
-        int objectsOffset = input.readInt();
+        int objectsOffset = readTableOffset(input);
+        ObjectTable objectsTable = ObjectTable.loaded(input, objectsOffset, format);
 
-        checkSignature(input.readInt());
-        int[] objectsTable = readTable(input, objectsOffset);
+        ParallelInflation inflation = new ParallelInflation(objectsTable, parallelism);
+        inflation.run(serializer, input, format, dictionary, executor, parallelism);
 
         input.seek(startPos);
 
-        ChioneInputWrapper wrapper = new ChioneInputWrapper(serializer, input, objectsTable);
+        ChioneInputWrapper wrapper = new ChioneInputWrapper(serializer, input, objectsTable, format, dictionary, inflation, 0);
         return wrapper.readReference();
     }
 
-    private int poll(ChioneDataOutput output, ChioneRegistry registry) {
-        int[] block = new int[TABLE_BLOCK_SIZE];
-        int current = 0;
-        int prevOffset = 0;
+    ChioneSerializer<Object> serializer() {
+        return serializer;
+    }
 
-        while (true) {
-            Object next = registry.poll();
-            if (next == null) {
-                break;
-            }
-            int offset = output.currentOffset();
+    ChioneFormat format() {
+        return format;
+    }
 
-            block[current++] = offset;
+    DeduplicationPolicy deduplication() {
+        return deduplication;
+    }
 
-            ChioneDescriptor descriptor = serializer.describe(next);
-            output.writeReference(descriptor);
-            serializer.writeContent(next, output);
+    void writeHeader(ChioneDataOutput output, Object rock) {
+        if (format.flags() == 0) {
+            output.write(SIGNATURE);
+        } else {
+            output.write(FLAGGED_SIGNATURE);
+            output.write(format.flags());
+        }
+        if (format.has(ChioneFormat.STATIC_DICTIONARY)) {
+            output.writeCount(dictionary.size());
+            output.write(dictionary.fingerprint());
+        }
+        output.writeReference(rock);
+    }
 
-            if (current == TABLE_BLOCK_SIZE) {
-                prevOffset = writeTable(output, block, current, prevOffset);
-                current = 0;
-            }
+    void writeTrailer(ChioneDataOutput output, int objectsOffset) {
+        output.write(objectsOffset);
+        output.write(SIGNATURE);
+    }
+
+    private int writeOffsets(ChioneDataOutput output, int[] offsets) {
+        if (format.has(ChioneFormat.CONTIGUOUS_INDEX)) {
+            return writeContiguousTable(output, offsets, offsets.length);
         }
-        if (current != 0) {
-            prevOffset = writeTable(output, block, current, prevOffset);
+        int prevOffset = 0;
+        for (int from = 0; from < offsets.length; from += TABLE_BLOCK_SIZE) {
+            prevOffset = writeTable(output, offsets, from, Math.min(TABLE_BLOCK_SIZE, offsets.length - from), prevOffset);
         }
         return prevOffset;
     }
 
-    private int writeTable(ChioneDataOutput output, int[] block, int count, int prevOffset) {
+    int writeContiguousTable(ChioneDataOutput output, int[] offsets, int count) {
         int start = output.currentOffset();
-        output.write(prevOffset);
         output.write(count);
-        for (int i = 0; i < count; i++) {
-            output.write(block[i]);
-        }
-
+        output.write(offsets, 0, count);
         return start;
     }
 
-    private void checkSignature(int signature) {
-        if (signature != SIGNATURE) {
-            throw new ChioneException();
-        }
-    }
-
-    private int[] readTable(DataInput input, int offset) {
-        int size = tableSize(input, offset);
-        int[] table = new int[size];
+    int writeObject(ChioneDataOutput output, Object obj) {
+        int offset = output.currentOffset();
 
-        int nextIndex = 0;
+        if (obj instanceof ChioneDescriptor) {
+            output.writeReference(ChioneDescriptor.DESCRIPTOR_DESCRIPTOR);
+            ((ChioneDescriptor) obj).write(output, format);
+            return offset;
+        }
 
-        int prevOffset = offset;
+        ChioneSerializer<Object> objSerializer = registry == null ? serializer : registry.<Object>serializerFor(obj);
+        ChioneDescriptor descriptor = objSerializer.describe(obj);
+        output.writeReference(descriptor);
+        objSerializer.writeContent(obj, output);
 
-        do {
-            input.seek(prevOffset);
-            prevOffset = input.readInt();
+        return offset;
+    }
 
-            for (int i = input.readInt(); i > 0; i--) {
-                table[nextIndex++] = input.readInt();
+    int writeTable(ChioneDataOutput output, int[] block, int from, int count, int prevOffset) {
+        int start = output.currentOffset();
+        output.writeCount(prevOffset);
+        output.writeCount(count);
+        if (format.has(ChioneFormat.VAR_INTS)) {
+            // chunks encoded in parallel are laid out out of order, so deltas may be negative
+            int last = 0;
+            for (int i = from; i < from + count; i++) {
+                output.writeCount(ChioneFormat.zigZag(block[i] - last));
+                last = block[i];
+            }
+        } else {
+            for (int i = from; i < from + count; i++) {
+                output.write(block[i]);
             }
+        }
 
-        } while (prevOffset != 0);
+        return start;
+    }
 
-        return table;
+    ChioneFormat readFormat(DataInput input) {
+        int signature = input.readInt();
+        if (signature == FLAGGED_SIGNATURE) {
+            return ChioneFormat.fromFlags(input.readInt());
+        }
+        checkSignature(signature);
+        return ChioneFormat.LEGACY;
+    }
+
+    ChioneDictionary dictionary(ChioneFormat format) {
+        return format.has(ChioneFormat.STATIC_DICTIONARY) ? dictionary : ChioneDictionary.LEGACY;
     }
 
-    private int tableSize(DataInput input, int offset) {
-        int prevOffset = offset;
-        int size = 0;
+    ChioneDictionary readDictionary(DataInput input, ChioneFormat format) {
+        if (!format.has(ChioneFormat.STATIC_DICTIONARY)) {
+            return ChioneDictionary.LEGACY;
+        }
+        int size = format.readCount(input);
+        int fingerprint = input.readInt();
+        return dictionary.prefix(size, fingerprint);
+    }
 
-        do {
-            input.seek(prevOffset);
-            prevOffset = input.readInt();
-            size += input.readInt();
-        } while (prevOffset != 0);
+    /**
+     * Reads the offset of the object table from the trailer, leaving the input after it.
+     */
+    int readTableOffset(DataInput input) {
+        input.seek(input.size() - DataInput.INT_SIZE * 2);
+        int objectsOffset = input.readInt();
+        checkSignature(input.readInt());
+        return objectsOffset;
+    }
 
-        return size;
+    private void checkSignature(int signature) {
+        if (signature != SIGNATURE) {
+            throw new ChioneException();
+        }
     }
+
 }
@@ -28,4 +28,24 @@ public interface ChioneDataInput extends DataInput {
 
     <T> T readReference();
 
+    /**
+     * Reads a reference held by a field of a generated type, see {@link ChioneFormat#FIXED_FIELDS}.
+     */
+    <T> T readFieldReference();
+
+    void skipReference();
+
+    /**
+     * Skips references held by fields of a generated type.
+     */
+    void skipReferences(int count);
+
+    /**
+     * @return size of every reference slot of the fields of generated types, or 0 if slots have variable length
+     * and {@link #skipReferences(int)} has to scan them
+     */
+    int referenceSize();
+
+    int readCount();
+
 }
@@ -30,6 +30,16 @@ public interface ChioneDataOutput extends DataOutput {
 
     int writeReference(@Nullable Object obj);
 
+    /**
+     * Writes a reference held by a field of a generated type, see {@link ChioneFormat#FIXED_FIELDS}.
+     */
+    int writeFieldReference(@Nullable Object obj);
+
+    /**
+     * Writes a non-negative size (of a collection, an array, etc.) in the compact form of the current format.
+     */
+    int writeCount(int count);
+
     int currentOffset();
 
 }
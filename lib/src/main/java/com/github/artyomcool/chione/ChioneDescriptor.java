@@ -24,7 +24,10 @@
 
 package com.github.artyomcool.chione;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ChioneDescriptor implements Named {
 
@@ -32,7 +35,7 @@ public class ChioneDescriptor implements Named {
 
     private static final int CURRENT_VERSION = 1;
 
-    private static final ChioneDescriptor DESCRIPTOR_DESCRIPTOR = new ChioneDescriptor(
+    static final ChioneDescriptor DESCRIPTOR_DESCRIPTOR = new ChioneDescriptor(
             CLASS_NAME,
             CURRENT_VERSION
     );
@@ -46,7 +49,8 @@ public class ChioneDescriptor implements Named {
 
                 @Override
                 public void writeContent(ChioneDescriptor obj, ChioneDataOutput dataOutput) {
-                    obj.write(dataOutput);
+                    // the content depends on the format, so descriptors are written by Chione itself
+                    throw new UnsupportedOperationException();
                 }
 
                 @Override
@@ -55,8 +59,18 @@ public class ChioneDescriptor implements Named {
                 }
             };
 
+    private static final int MAX_INTERNED = 1 << 12;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final ConcurrentMap<ChioneDescriptor, ChioneDescriptor> INTERNED = new ConcurrentHashMap<>();
+
     private int version;
     private List<SubDescriptor> subDescriptors;
+    private int hash;
+    private long layoutFingerprint;
+    private volatile Binding binding;
 
     public ChioneDescriptor() {
     }
@@ -74,6 +88,14 @@ public class ChioneDescriptor implements Named {
         this.subDescriptors = Collections.singletonList(new SubDescriptor(className, fields));
     }
 
+    /**
+     * @param layoutFingerprint {@link #layoutFingerprint()} of the descriptor computed beforehand, e.g. at compile time
+     */
+    public ChioneDescriptor(String className, int version, List<SnowFlakeField> fields, long layoutFingerprint) {
+        this(className, version, fields);
+        this.layoutFingerprint = layoutFingerprint;
+    }
+
     public ChioneDescriptor(int version, List<SubDescriptor> subDescriptors) {
         this.version = version;
         this.subDescriptors = subDescriptors;
@@ -91,12 +113,15 @@ public class ChioneDescriptor implements Named {
         return version;
     }
 
-    void write(ChioneDataOutput output) {
+    void write(ChioneDataOutput output, ChioneFormat format) {
+        if (format.has(ChioneFormat.LAYOUT_FINGERPRINTS)) {
+            output.write(layoutFingerprint());
+        }
         output.write(version);
-        output.write(subDescriptors.size());
+        output.writeCount(subDescriptors.size());
         for (SubDescriptor subDescriptor : subDescriptors) {
             writeClassName(output, subDescriptor.className);
-            output.write(subDescriptor.fields.size());
+            output.writeCount(subDescriptor.fields.size());
             for (SnowFlakeField field : subDescriptor.fields) {
                 output.writeReference(field.name());
                 output.writeReference(field.type());
@@ -111,12 +136,12 @@ public class ChioneDescriptor implements Named {
             }
         }
         int version = input.readInt();
-        int subDescriptorsCount = input.readInt();
+        int subDescriptorsCount = input.readCount();
 
         List<SubDescriptor> subDescriptors = new ArrayList<>(subDescriptorsCount);
         for (int i = 0; i < subDescriptorsCount; i++) {
             String className = readClassName(input);
-            int fieldsCount = input.readInt();
+            int fieldsCount = input.readCount();
             List<SnowFlakeField> fields = new ArrayList<>(fieldsCount);
             for (int j = 0; j < fieldsCount; j++) {
                 String name = input.readReference();
@@ -127,6 +152,25 @@ public class ChioneDescriptor implements Named {
         }
         this.version = version;
         this.subDescriptors = subDescriptors;
+        this.hash = 0;
+        this.layoutFingerprint = 0;
+    }
+
+    /**
+     * Returns the canonical instance of descriptors equal to the given one, so the descriptors read from
+     * different images are shared, as well as everything cached for them by the serializers.
+     * A limited number of descriptors is remembered; the rest are returned as is.
+     */
+    static ChioneDescriptor intern(ChioneDescriptor descriptor) {
+        ChioneDescriptor interned = INTERNED.get(descriptor);
+        if (interned != null) {
+            return interned;
+        }
+        if (INTERNED.size() >= MAX_INTERNED) {
+            return descriptor;
+        }
+        interned = INTERNED.putIfAbsent(descriptor, descriptor);
+        return interned == null ? descriptor : interned;
     }
 
     private void writeClassName(ChioneDataOutput output, String className) {
@@ -165,11 +209,87 @@ public class ChioneDescriptor implements Named {
         return new ChioneDescriptor(version, changed);
     }
 
+    /**
+     * @return serializer bound to the descriptor by the given owner, or {@code null}
+     */
+    ChioneSerializer<?> boundSerializer(Object owner) {
+        Binding binding = this.binding;
+        return binding != null && binding.owner.get() == owner ? binding.serializer.get() : null;
+    }
+
+    /**
+     * Caches the serializer resolved for the descriptor; interned descriptors keep one binding at a time.
+     */
+    void bind(Object owner, ChioneSerializer<?> serializer) {
+        this.binding = new Binding(owner, serializer);
+    }
+
     @Override
     public String chioneName() {
         return CLASS_NAME;
     }
 
+    /**
+     * @return 64-bit FNV-1a hash of the version, the class names and the fields, stable between processes
+     */
+    public long layoutFingerprint() {
+        long h = layoutFingerprint;
+        if (h == 0) {
+            h = FNV_OFFSET_BASIS;
+            h = fingerprint(h, version);
+            for (SubDescriptor subDescriptor : subDescriptors) {
+                h = fingerprint(h, subDescriptor.className);
+                h = fingerprint(h, subDescriptor.fields.size());
+                for (SnowFlakeField field : subDescriptor.fields) {
+                    h = fingerprint(h, field.name());
+                    h = fingerprint(h, field.type());
+                }
+            }
+            layoutFingerprint = h;
+        }
+        return h;
+    }
+
+    private static long fingerprint(long h, String value) {
+        h = fingerprint(h, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long fingerprint(long h, int value) {
+        for (int i = 0; i < 4; i++) {
+            h = (h ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChioneDescriptor)) {
+            return false;
+        }
+        ChioneDescriptor that = (ChioneDescriptor) o;
+        return hashCode() == that.hashCode()
+                && version == that.version
+                && subDescriptors.equals(that.subDescriptors);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * version + subDescriptors.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
     public static class SubDescriptor {
         final String className;
         final List<SnowFlakeField> fields;
@@ -186,6 +306,36 @@ public class ChioneDescriptor implements Named {
         public List<SnowFlakeField> getFields() {
             return fields;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SubDescriptor)) {
+                return false;
+            }
+            SubDescriptor that = (SubDescriptor) o;
+            return className.equals(that.className) && fields.equals(that.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * className.hashCode() + fields.hashCode();
+        }
+    }
+
+    /**
+     * Weak, so interned descriptors don't keep the owners and the class loaders of their serializers.
+     */
+    private static class Binding {
+        final WeakReference<Object> owner;
+        final WeakReference<ChioneSerializer<?>> serializer;
+
+        Binding(Object owner, ChioneSerializer<?> serializer) {
+            this.owner = new WeakReference<>(owner);
+            this.serializer = new WeakReference<ChioneSerializer<?>>(serializer);
+        }
     }
 
 }
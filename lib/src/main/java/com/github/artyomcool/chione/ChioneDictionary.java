@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Objects with references fixed in advance and known to both the writer and the reader, so they are
+ * never written into an image. Entries take references {@code 0..size-1}; the first two are always
+ * the descriptors of strings and of descriptors themselves.
+ * <p>
+ * Images written with {@link ChioneFormat#STATIC_DICTIONARY} record the size and the fingerprint of the dictionary
+ * and can be read with the same dictionary or with one that has more entries appended to it.
+ * A descriptor in the dictionary is never written, so its type can't evolve while old images are still read.
+ */
+@Immutable
+public final class ChioneDictionary {
+
+    /**
+     * Built-in entries only.
+     */
+    public static final ChioneDictionary EMPTY = builder().build();
+
+    /**
+     * Images written without {@link ChioneFormat#STATIC_DICTIONARY} keep a single reserved reference
+     * for the string descriptor at the end of the reference space.
+     */
+    static final ChioneDictionary LEGACY = new ChioneDictionary(
+            Collections.<Object>singletonList(StringSerializer.DESCRIPTOR),
+            StringSerializer.DESCRIPTOR_STATIC_REFERENCE,
+            new int[2]
+    );
+
+    private final List<Object> entries;
+    private final int first;
+    private final int[] fingerprints;
+
+    private ChioneDictionary(List<Object> entries, int first, int[] fingerprints) {
+        this.entries = entries;
+        this.first = first;
+        this.fingerprints = fingerprints;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return first == 0 ? entries.size() : 0;
+    }
+
+    public int fingerprint() {
+        return fingerprints[entries.size()];
+    }
+
+    /**
+     * @return the dictionary of the first {@code size} entries, if it has the given fingerprint
+     * @throws ChioneException if this dictionary doesn't start with such one
+     */
+    ChioneDictionary prefix(int size, int fingerprint) {
+        if (first != 0 || size < 0 || size > entries.size() || fingerprints[size] != fingerprint) {
+            throw new ChioneException("The image was written with another static dictionary");
+        }
+        if (size == entries.size()) {
+            return this;
+        }
+        return new ChioneDictionary(entries.subList(0, size), 0, Arrays.copyOf(fingerprints, size + 1));
+    }
+
+    /**
+     * @return reference of the first object written into an image
+     */
+    int firstReference() {
+        return size();
+    }
+
+    boolean isStatic(int ref) {
+        return ref >= first && ref - first < entries.size();
+    }
+
+    Object get(int ref) {
+        return entries.get(ref - first);
+    }
+
+    void reserve(Recollection<Object> recollection) {
+        for (int i = 0; i < entries.size(); i++) {
+            final int ref = first + i;
+            recollection.remember(entries.get(i), new ReferenceAllocator() {
+                @Override
+                public int nextReference() {
+                    return ref;
+                }
+            });
+        }
+    }
+
+    @NotThreadSafe
+    public static final class Builder {
+
+        private final List<Object> entries = new ArrayList<>();
+
+        private Builder() {
+            entries.add(StringSerializer.DESCRIPTOR);
+            entries.add(ChioneDescriptor.DESCRIPTOR_DESCRIPTOR);
+        }
+
+        /**
+         * Strings are matched by equality as long as the {@link DeduplicationPolicy} covers them, as the default one does.
+         */
+        public Builder add(String string) {
+            entries.add(string);
+            return this;
+        }
+
+        /**
+         * The descriptor is matched by equality, since descriptors are deduplicated under any {@link DeduplicationPolicy}.
+         */
+        public Builder add(ChioneDescriptor descriptor) {
+            entries.add(descriptor);
+            return this;
+        }
+
+        /**
+         * Adds the package, class, field and type names a written descriptor refers to, except the ones already added.
+         */
+        public Builder addNames(ChioneDescriptor descriptor) {
+            for (ChioneDescriptor.SubDescriptor subDescriptor : descriptor.subDescriptors()) {
+                String className = subDescriptor.className;
+                int lastPos = className.lastIndexOf('.');
+                if (lastPos == -1) {
+                    addName(className);
+                } else {
+                    addName(className.substring(0, lastPos));
+                    addName(className.substring(lastPos + 1));
+                }
+                for (SnowFlakeField field : subDescriptor.fields) {
+                    addName(field.name());
+                    addName(field.type());
+                }
+            }
+            return this;
+        }
+
+        private void addName(String name) {
+            if (!entries.contains(name)) {
+                entries.add(name);
+            }
+        }
+
+        public ChioneDictionary build() {
+            int[] fingerprints = new int[entries.size() + 1];
+            fingerprints[0] = 1;
+            for (int i = 0; i < entries.size(); i++) {
+                fingerprints[i + 1] = 31 * fingerprints[i] + fingerprint(entries.get(i));
+            }
+            return new ChioneDictionary(Collections.unmodifiableList(new ArrayList<>(entries)), 0, fingerprints);
+        }
+
+        private static int fingerprint(Object entry) {
+            if (entry instanceof String) {
+                return entry.hashCode();
+            }
+            ChioneDescriptor descriptor = (ChioneDescriptor) entry;
+            int result = descriptor.version();
+            for (ChioneDescriptor.SubDescriptor subDescriptor : descriptor.subDescriptors()) {
+                result = 31 * result + subDescriptor.className.hashCode();
+                for (SnowFlakeField field : subDescriptor.fields) {
+                    result = 31 * result + field.name().hashCode();
+                    result = 31 * result + field.type().hashCode();
+                }
+            }
+            return ~result;
+        }
+
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Set of encoding options of a stored image. Flags are written into the header, so a reader always
+ * decodes an image the way it was written, regardless of its own {@link Chione} configuration.
+ */
+@Immutable
+public final class ChioneFormat {
+
+    /**
+     * References, counts and object table entries are stored as unsigned variable-length ints
+     * (7 bits per byte, least significant group first) instead of fixed 4-byte ints.
+     * References are shifted by one, so {@code null} takes a single zero byte.
+     * Table offsets are stored as zigzag-encoded deltas from the previous entry of the block.
+     * References then have no fixed size, except those held by fields with {@link #FIXED_FIELDS}.
+     */
+    public static final int VAR_INTS = 1;
+
+    /**
+     * Strings are stored with a varint length as Latin-1 when possible and as UTF-8 otherwise
+     * instead of a short length and UTF-16 chars.
+     */
+    public static final int COMPACT_STRINGS = 2;
+
+    /**
+     * The object table is written once in the footer as a count followed by fixed 4-byte offsets,
+     * so a reader finds the offset of any object with a single read instead of decoding the linked table blocks.
+     * The writer keeps the offsets in memory until the end of the image.
+     */
+    public static final int CONTIGUOUS_INDEX = 4;
+
+    /**
+     * References below the size of the {@link ChioneDictionary} point to its entries and written objects start
+     * right after them. The header records the size and the fingerprint of the dictionary.
+     * Without this flag the only reserved reference is {@link StringSerializer#DESCRIPTOR_STATIC_REFERENCE}.
+     */
+    public static final int STATIC_DICTIONARY = 8;
+
+    /**
+     * Reference slots may carry booleans, boxed numbers, chars and strings of up to
+     * {@link InlineValues#MAX_STRING_LENGTH} chars right in place instead of referencing a table entry.
+     * Such values lose their identity. Requires {@link #VAR_INTS} and {@link #STATIC_DICTIONARY}.
+     */
+    public static final int INLINE_VALUES = 16;
+
+    /**
+     * Every written descriptor starts with its {@link ChioneDescriptor#layoutFingerprint() layout fingerprint}.
+     * A {@link SerializerRegistry} that has already resolved a descriptor with the same fingerprint
+     * uses it without decoding the class name and the fields.
+     */
+    public static final int LAYOUT_FINGERPRINTS = 32;
+
+    /**
+     * References held by fields of generated types take fixed 4-byte slots even with {@link #VAR_INTS},
+     * so every stored field lies at an offset known from the stored layout, and a reader of a changed layout
+     * skips the dropped fields before a read one with a single computed seek.
+     * Has no effect with {@link #INLINE_VALUES}, whose slots have variable length.
+     */
+    public static final int FIXED_FIELDS = 64;
+
+    private static final int KNOWN_FLAGS =
+            VAR_INTS | COMPACT_STRINGS | CONTIGUOUS_INDEX | STATIC_DICTIONARY | INLINE_VALUES | LAYOUT_FINGERPRINTS
+                    | FIXED_FIELDS;
+
+    public static final ChioneFormat LEGACY = new ChioneFormat(0);
+    public static final ChioneFormat DEFAULT = new ChioneFormat(
+            VAR_INTS | COMPACT_STRINGS | STATIC_DICTIONARY | LAYOUT_FINGERPRINTS | FIXED_FIELDS
+    );
+
+    private final int flags;
+
+    private ChioneFormat(int flags) {
+        this.flags = flags;
+    }
+
+    public static ChioneFormat fromFlags(int flags) {
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new ChioneException("Unsupported format flags: 0x" + Integer.toHexString(flags));
+        }
+        if ((flags & INLINE_VALUES) != 0 && (flags & (VAR_INTS | STATIC_DICTIONARY)) != (VAR_INTS | STATIC_DICTIONARY)) {
+            throw new ChioneException("Inline values require variable-length ints and the static dictionary");
+        }
+        return new ChioneFormat(flags);
+    }
+
+    public ChioneFormat with(int flag) {
+        return fromFlags(flags | flag);
+    }
+
+    public ChioneFormat without(int flag) {
+        return fromFlags(flags & ~flag);
+    }
+
+    public boolean has(int flag) {
+        return (flags & flag) == flag;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    int writeCount(DataOutput output, int count) {
+        if (has(VAR_INTS)) {
+            return writeVarInt(output, count);
+        }
+        return output.write(count);
+    }
+
+    int readCount(DataInput input) {
+        if (has(VAR_INTS)) {
+            return readVarInt(input);
+        }
+        return input.readInt();
+    }
+
+    static int writeVarInt(DataOutput output, int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            output.write((byte) (value | 0x80));
+            value >>>= 7;
+            size++;
+        }
+        output.write((byte) value);
+        return size;
+    }
+
+    static int readVarInt(DataInput input) {
+        byte b = input.readByte();
+        if (b >= 0) {
+            return b;
+        }
+        int result = b & 0x7f;
+        for (int shift = 7; shift < 35; shift += 7) {
+            b = input.readByte();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new ChioneException("Malformed variable-length int at " + (input.pos() - 5));
+    }
+
+    static int writeVarLong(DataOutput output, long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            output.write((byte) (value | 0x80));
+            value >>>= 7;
+            size++;
+        }
+        output.write((byte) value);
+        return size;
+    }
+
+    static long readVarLong(DataInput input) {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = input.readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new ChioneException("Malformed variable-length long at " + (input.pos() - 10));
+    }
+
+    /**
+     * Maps signed values to unsigned ones, so values of a small magnitude take short varints whatever their sign.
+     */
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ChioneFormat && ((ChioneFormat) o).flags == flags;
+    }
+
+    @Override
+    public int hashCode() {
+        return flags;
+    }
+
+    @Override
+    public String toString() {
+        return "ChioneFormat{flags=0x" + Integer.toHexString(flags) + '}';
+    }
+}
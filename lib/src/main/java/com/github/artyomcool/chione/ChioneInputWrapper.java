@@ -33,30 +33,144 @@ import static com.github.artyomcool.chione.Util.unsafeCast;
 public class ChioneInputWrapper implements ChioneDataInput {
 
     private final ChioneSerializer<Object> serializer;
-    private final DataInput delegate;
-    private final int[] objectOffsets;  //TODO no need to store it
-    private final Object[] objects;    //TODO more compact way?
+    private final SerializerRegistry registry;
+    private final ObjectTable objects;
+    private DataInput delegate;
+    private ChioneFormat format;
+    private boolean varInts;
+    private boolean inlineValues;
+    private boolean fixedFields;
+    private boolean layoutFingerprints;
+    private StringCodec stringCodec;
+    private ChioneDictionary dictionary;
+    private int firstReference;
+    private int generation;
     private final ContextPool contextPool = new ContextPool();
     private final ObjectInflater objectInflater = new ObjectInflater();
     private final DescriptorInflater descriptorInflater = new DescriptorInflater();
+    private final AnyInflater anyInflater = new AnyInflater();
+    private final ParallelInflation parallel;
+    private final int worker;
+
+    ChioneInputWrapper(ChioneSerializer<Object> serializer,
+                       DataInput delegate,
+                       ObjectTable objects,
+                       ChioneFormat format,
+                       ChioneDictionary dictionary) {
+        this(serializer, delegate, objects, format, dictionary, null, 0);
+    }
 
-    public ChioneInputWrapper(ChioneSerializer<Object> serializer, DataInput delegate, int[] objectOffsets) {
+    ChioneInputWrapper(ChioneSerializer<Object> serializer,
+                       DataInput delegate,
+                       ObjectTable objects,
+                       ChioneFormat format,
+                       ChioneDictionary dictionary,
+                       ParallelInflation parallel,
+                       int worker) {
         this.serializer = serializer;
-        this.delegate = delegate;
-        this.objectOffsets = objectOffsets;
+        this.registry = serializer instanceof SerializerRegistry ? (SerializerRegistry) serializer : null;
+        this.objects = objects;
+        this.parallel = parallel;
+        this.worker = worker;
+        init(delegate, format, dictionary);
+    }
+
+    /**
+     * Switches a {@link ChioneSession} reader to the next image. {@link Lazy} values of the previous one
+     * can't be loaded anymore.
+     */
+    void reset(DataInput delegate, ChioneFormat format, ChioneDictionary dictionary) {
+        generation++;
+        init(delegate, format, dictionary);
+    }
+
+    /**
+     * Detaches the reader from its image, so {@link Lazy} values of it can't be loaded anymore.
+     */
+    void release() {
+        generation++;
+        delegate = null;
+    }
 
-        objects = new Object[objectOffsets.length];
+    int generation() {
+        return generation;
+    }
+
+    private void init(DataInput delegate, ChioneFormat format, ChioneDictionary dictionary) {
+        this.delegate = delegate;
+        this.format = format;
+        this.varInts = format.has(ChioneFormat.VAR_INTS);
+        this.inlineValues = format.has(ChioneFormat.INLINE_VALUES);
+        this.fixedFields = format.has(ChioneFormat.FIXED_FIELDS) && !inlineValues;
+        this.layoutFingerprints = format.has(ChioneFormat.LAYOUT_FINGERPRINTS);
+        if (!format.has(ChioneFormat.COMPACT_STRINGS)) {
+            this.stringCodec = null;
+        } else if (stringCodec == null) {
+            this.stringCodec = new StringCodec();
+        }
+        this.dictionary = dictionary;
+        this.firstReference = dictionary.firstReference();
     }
 
     @Override
     public <T> T readReference() {
-        int ref = readInt();
+        if (inlineValues) {
+            return unsafeCast(readSlot());
+        }
+        int ref = readRef();
+        if (ref == NULL_REF) {
+            return null;
+        }
+        return unsafeCast(objectFromRef(ref));
+    }
+
+    @Override
+    public <T> T readFieldReference() {
+        if (!fixedFields) {
+            return readReference();
+        }
+        int ref = delegate.readInt();
         if (ref == NULL_REF) {
             return null;
         }
         return unsafeCast(objectFromRef(ref));
     }
 
+    @Override
+    public void skipReference() {
+        skipReferences(1);
+    }
+
+    @Override
+    public void skipReferences(int count) {
+        if (fixedFields) {
+            delegate.seek(delegate.pos() + count * INT_SIZE);
+        } else if (inlineValues) {
+            for (int i = 0; i < count; i++) {
+                skipSlot();
+            }
+        } else if (varInts) {
+            // the last byte of a varint is the only one without the continuation bit
+            for (int skipped = 0; skipped < count; ) {
+                if (delegate.readByte() >= 0) {
+                    skipped++;
+                }
+            }
+        } else {
+            delegate.seek(delegate.pos() + count * INT_SIZE);
+        }
+    }
+
+    @Override
+    public int referenceSize() {
+        return fixedFields || !varInts && !inlineValues ? INT_SIZE : 0;
+    }
+
+    @Override
+    public int readCount() {
+        return format.readCount(delegate);
+    }
+
     @Override
     public void seek(int offset) {
         delegate.seek(offset);
@@ -94,69 +208,279 @@ public class ChioneInputWrapper implements ChioneDataInput {
 
     @Override
     public String readString() {
+        if (stringCodec != null) {
+            return stringCodec.read(delegate);
+        }
         return delegate.readString();
     }
 
+    @Override
+    public void readBytes(byte[] dst, int offset, int length) {
+        delegate.readBytes(dst, offset, length);
+    }
+
+    @Override
+    public void readShorts(short[] dst, int offset, int length) {
+        delegate.readShorts(dst, offset, length);
+    }
+
+    @Override
+    public void readChars(char[] dst, int offset, int length) {
+        delegate.readChars(dst, offset, length);
+    }
+
+    @Override
+    public void readInts(int[] dst, int offset, int length) {
+        delegate.readInts(dst, offset, length);
+    }
+
+    @Override
+    public void readLongs(long[] dst, int offset, int length) {
+        delegate.readLongs(dst, offset, length);
+    }
+
+    @Override
+    public void readFloats(float[] dst, int offset, int length) {
+        delegate.readFloats(dst, offset, length);
+    }
+
+    @Override
+    public void readDoubles(double[] dst, int offset, int length) {
+        delegate.readDoubles(dst, offset, length);
+    }
+
+    /**
+     * Creates a reader of the same image with its own position, sharing the inflated objects.
+     */
+    @Override
+    public ChioneInputWrapper duplicate() {
+        return new ChioneInputWrapper(serializer, delegate.duplicate(), objects, format, dictionary, parallel, worker);
+    }
+
+    /**
+     * Inflates an object of any kind, including descriptors, by its position in the object table.
+     */
+    void inflate(int index) {
+        objectFromRef(index + firstReference, anyInflater);
+    }
+
     private Object objectFromRef(int ref) {
         return objectFromRef(ref, objectInflater);
     }
 
-    private ChioneDescriptor readDescriptor() {
-        int ref = readInt();
-        if (ref == StringSerializer.DESCRIPTOR_STATIC_REFERENCE) { //TODO
-            return StringSerializer.DESCRIPTOR; //TODO
+    private Object readSlot() {
+        int slot = ChioneFormat.readVarInt(delegate);
+        int payload = slot >>> InlineValues.TAG_BITS;
+        switch (slot & InlineValues.TAG_MASK) {
+            case InlineValues.TAG_REFERENCE:
+                return payload == 0 ? null : objectFromRef(payload - 1);
+            case InlineValues.TAG_INT:
+                return ChioneFormat.unZigZag(payload);
+            case InlineValues.TAG_STRING:
+                return readString();
+            default:
+                return readConstant(payload);
+        }
+    }
+
+    private void skipSlot() {
+        int slot = ChioneFormat.readVarInt(delegate);
+        int payload = slot >>> InlineValues.TAG_BITS;
+        switch (slot & InlineValues.TAG_MASK) {
+            case InlineValues.TAG_STRING:
+                if (stringCodec != null) {
+                    StringCodec.skip(delegate);
+                } else {
+                    delegate.readString();
+                }
+                break;
+            case InlineValues.TAG_CONSTANT:
+                skipConstant(payload);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void skipConstant(int kind) {
+        switch (kind) {
+            case InlineValues.FALSE:
+            case InlineValues.TRUE:
+                break;
+            case InlineValues.INT:
+                ChioneFormat.readVarInt(delegate);
+                break;
+            case InlineValues.LONG:
+                ChioneFormat.readVarLong(delegate);
+                break;
+            case InlineValues.FLOAT:
+                delegate.seek(delegate.pos() + INT_SIZE);
+                break;
+            case InlineValues.DOUBLE:
+                delegate.seek(delegate.pos() + LONG_SIZE);
+                break;
+            case InlineValues.SHORT:
+            case InlineValues.CHAR:
+                delegate.seek(delegate.pos() + SHORT_SIZE);
+                break;
+            case InlineValues.BYTE:
+                delegate.seek(delegate.pos() + BYTE_SIZE);
+                break;
+            default:
+                throw new ChioneException("Unknown inline value kind: " + kind);
+        }
+    }
+
+    private Object readConstant(int kind) {
+        switch (kind) {
+            case InlineValues.FALSE:
+                return Boolean.FALSE;
+            case InlineValues.TRUE:
+                return Boolean.TRUE;
+            case InlineValues.INT:
+                return ChioneFormat.unZigZag(ChioneFormat.readVarInt(delegate));
+            case InlineValues.LONG:
+                return ChioneFormat.unZigZag(ChioneFormat.readVarLong(delegate));
+            case InlineValues.FLOAT:
+                return Float.intBitsToFloat(readInt());
+            case InlineValues.DOUBLE:
+                return Double.longBitsToDouble(readLong());
+            case InlineValues.SHORT:
+                return readShort();
+            case InlineValues.BYTE:
+                return readByte();
+            case InlineValues.CHAR:
+                return (char) readShort();
+            default:
+                throw new ChioneException("Unknown inline value kind: " + kind);
         }
-        return objectFromRef(ref, descriptorInflater);
+    }
+
+    private int readRef() {
+        if (inlineValues) {
+            int slot = ChioneFormat.readVarInt(delegate);
+            if ((slot & InlineValues.TAG_MASK) != InlineValues.TAG_REFERENCE) {
+                throw new ChioneException("Reference expected at " + (pos() - 1));
+            }
+            return (slot >>> InlineValues.TAG_BITS) - 1;
+        }
+        if (varInts) {
+            return ChioneFormat.readVarInt(delegate) - 1;
+        }
+        return delegate.readInt();
+    }
+
+    private ChioneDescriptor readDescriptor() {
+        return objectFromRef(readRef(), descriptorInflater);
     }
 
     private <T> T objectFromRef(int ref, Inflater<T> inflater) {
-        Object cached = objects[ref];
-        if (cached != null) {
-            return unsafeCast(cached);
+        if (dictionary.isStatic(ref)) {
+            return unsafeCast(dictionary.get(ref));
+        }
+
+        int index = ref - firstReference;
+        if (parallel == null) {
+            Object cached = objects.get(index);
+            if (cached != null) {
+                return unsafeCast(cached);
+            }
+        } else {
+            Object acquired = parallel.acquire(index, worker);
+            if (acquired != ParallelInflation.CLAIMED) {
+                return unsafeCast(acquired);
+            }
         }
 
         int oldOffset = pos();
-        seek(objectOffsets[ref]);
+        seek(objects.offset(index));
 
-        T result = inflater.inflate(ref);
+        T result = inflater.inflate(index);
 
         seek(oldOffset);
+        if (parallel != null) {
+            parallel.done(index);
+        }
         return result;
     }
 
-    private ChioneDescriptor inflateDescriptor(int ref) {
-        ChioneDescriptor descriptor = new ChioneDescriptor();
-        objects[ref] = descriptor;
+    private void hook(int index, Object obj) {
+        objects.put(index, obj);
+        if (parallel != null) {
+            parallel.hooked(index, worker);
+        }
+    }
+
+    private ChioneDescriptor inflateDescriptor(int index) {
+        int start = pos();
+        boolean describesItself = readRef() == index + firstReference;
+        seek(start);
 
+        ChioneDescriptor descriptor = new ChioneDescriptor();
+        if (describesItself) {
+            hook(index, descriptor);
+        }
         ChioneDescriptor descriptorDescriptor = readDescriptor();
+        if (layoutFingerprints) {
+            long fingerprint = readLong();
+            ChioneDescriptor known = registry == null ? null : registry.known(fingerprint);
+            if (known != null && !describesItself) {
+                hook(index, known);
+                return known;
+            }
+        }
         descriptor.read(ChioneInputWrapper.this, descriptorDescriptor);
+        if (describesItself) {
+            return descriptor;
+        }
 
+        // only the descriptor of descriptors may refer to itself, so the others are hooked once interned
+        descriptor = ChioneDescriptor.intern(descriptor);
+        hook(index, descriptor);
         return descriptor;
     }
 
-    private Object inflateObject(int ref) {
+    private Object inflateObject(int index) {
         ChioneDescriptor descriptor = readDescriptor();
-        WrapperDeserializationContext context = contextPool.get(descriptor, ref);
+        WrapperDeserializationContext context = contextPool.get(descriptor, index);
         Object result = serializer.deserialize(context);
         contextPool.recycle(context);
         return result;
     }
 
     private interface Inflater<T> {
-        T inflate(int ref);
+        T inflate(int index);
     }
 
     private class ObjectInflater implements Inflater<Object> {
         @Override
-        public Object inflate(int ref) {
-            return inflateObject(ref);
+        public Object inflate(int index) {
+            return inflateObject(index);
         }
     }
 
     private class DescriptorInflater implements Inflater<ChioneDescriptor> {
         @Override
-        public ChioneDescriptor inflate(int ref) {
-            return inflateDescriptor(ref);
+        public ChioneDescriptor inflate(int index) {
+            return inflateDescriptor(index);
+        }
+    }
+
+    private class AnyInflater implements Inflater<Object> {
+        @Override
+        public Object inflate(int index) {
+            int start = pos();
+            int descriptorRef = readRef();
+            seek(start);
+            if (descriptorRef == index + firstReference || isDescriptorDescriptor(descriptorRef)) {
+                return inflateDescriptor(index);
+            }
+            return inflateObject(index);
+        }
+
+        private boolean isDescriptorDescriptor(int ref) {
+            ChioneDescriptor descriptor = objectFromRef(ref, descriptorInflater);
+            return ChioneDescriptor.CLASS_NAME.equals(descriptor.getClassName());
         }
     }
 
@@ -164,12 +488,12 @@ public class ChioneInputWrapper implements ChioneDataInput {
 
         private boolean hooked;
         private ChioneDescriptor descriptor;
-        private int ref;
+        private int index;
 
-        WrapperDeserializationContext init(ChioneDescriptor descriptor, int ref) {
+        WrapperDeserializationContext init(ChioneDescriptor descriptor, int index) {
             hooked = false;
             this.descriptor = descriptor;
-            this.ref = ref;
+            this.index = index;
             return this;
         }
 
@@ -197,7 +521,7 @@ public class ChioneInputWrapper implements ChioneDataInput {
                 throw new ChioneException();
             }
             hooked = true;
-            objects[ref] = obj;
+            hook(index, obj);
             return obj;
         }
 
@@ -207,12 +531,12 @@ public class ChioneInputWrapper implements ChioneDataInput {
 
         private final Deque<WrapperDeserializationContext> pool = new ArrayDeque<>();
 
-        WrapperDeserializationContext get(ChioneDescriptor descriptor, int ref) {
+        WrapperDeserializationContext get(ChioneDescriptor descriptor, int index) {
             WrapperDeserializationContext instance = getFromPool();
             if (instance == null) {
                 instance = new WrapperDeserializationContext();
             }
-            return instance.init(descriptor, ref);
+            return instance.init(descriptor, index);
         }
 
         void recycle(WrapperDeserializationContext context) {
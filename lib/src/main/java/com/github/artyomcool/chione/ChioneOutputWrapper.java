@@ -29,20 +29,67 @@ import net.jcip.annotations.NotThreadSafe;
 @NotThreadSafe
 public class ChioneOutputWrapper implements ChioneDataOutput {
 
-    private final DataOutput delegate;
+    private DataOutput delegate;
     private final ReferenceRegistry registry;
+    private final ChioneFormat format;
+    private final boolean varInts;
+    private final boolean inlineValues;
+    private final boolean fixedFields;
+    private final StringCodec stringCodec;
 
     private int pos = 0;
 
     public ChioneOutputWrapper(DataOutput delegate,
-                               ReferenceRegistry registry) {
+                               ReferenceRegistry registry,
+                               ChioneFormat format) {
         this.delegate = delegate;
         this.registry = registry;
+        this.format = format;
+        this.varInts = format.has(ChioneFormat.VAR_INTS);
+        this.inlineValues = format.has(ChioneFormat.INLINE_VALUES);
+        this.fixedFields = format.has(ChioneFormat.FIXED_FIELDS) && !inlineValues;
+        this.stringCodec = format.has(ChioneFormat.COMPACT_STRINGS) ? new StringCodec() : null;
+    }
+
+    /**
+     * Redirects the wrapper to the next output of a {@link ChioneSession}.
+     */
+    void reset(DataOutput delegate) {
+        this.delegate = delegate;
+        this.pos = 0;
     }
 
     @Override
     public int writeReference(Object reference) {
-        return write(registry.ref(reference));
+        if (inlineValues) {
+            int size = writeInline(reference);
+            if (size > 0) {
+                return size;
+            }
+            int ref = registry.ref(reference);
+            if (ref + 1 > InlineValues.MAX_PAYLOAD) {
+                throw new ChioneException("Too many objects for inline values: " + ref);
+            }
+            return writeSlot(ref + 1, InlineValues.TAG_REFERENCE);
+        }
+        int ref = registry.ref(reference);
+        if (varInts) {
+            return incPos(ChioneFormat.writeVarInt(delegate, ref + 1));
+        }
+        return write(ref);
+    }
+
+    @Override
+    public int writeFieldReference(Object reference) {
+        if (fixedFields) {
+            return write(registry.ref(reference));
+        }
+        return writeReference(reference);
+    }
+
+    @Override
+    public int writeCount(int count) {
+        return incPos(format.writeCount(delegate, count));
     }
 
     @Override
@@ -72,6 +119,9 @@ public class ChioneOutputWrapper implements ChioneDataOutput {
 
     @Override
     public int write(String s) {
+        if (stringCodec != null) {
+            return incPos(stringCodec.write(delegate, s));
+        }
         return incPos(delegate.write(s));
     }
 
@@ -80,6 +130,96 @@ public class ChioneOutputWrapper implements ChioneDataOutput {
         return incPos(delegate.write(data));
     }
 
+    @Override
+    public int write(byte[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(short[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(char[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(int[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(long[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(float[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    @Override
+    public int write(double[] src, int offset, int length) {
+        return incPos(delegate.write(src, offset, length));
+    }
+
+    /**
+     * @return written size, or 0 if the value can't be inlined
+     */
+    private int writeInline(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        Class<?> type = value.getClass();
+        if (type == Integer.class) {
+            int zigZag = ChioneFormat.zigZag((Integer) value);
+            if ((zigZag & ~InlineValues.MAX_PAYLOAD) == 0) {
+                return writeSlot(zigZag, InlineValues.TAG_INT);
+            }
+            return writeConstant(InlineValues.INT) + incPos(ChioneFormat.writeVarInt(delegate, zigZag));
+        }
+        if (type == String.class) {
+            String s = (String) value;
+            if (s.length() > InlineValues.MAX_STRING_LENGTH) {
+                return 0;
+            }
+            return writeSlot(0, InlineValues.TAG_STRING) + write(s);
+        }
+        if (type == Boolean.class) {
+            return writeConstant((Boolean) value ? InlineValues.TRUE : InlineValues.FALSE);
+        }
+        if (type == Long.class) {
+            long zigZag = ChioneFormat.zigZag((Long) value);
+            return writeConstant(InlineValues.LONG) + incPos(ChioneFormat.writeVarLong(delegate, zigZag));
+        }
+        if (type == Double.class) {
+            return writeConstant(InlineValues.DOUBLE) + write(Double.doubleToRawLongBits((Double) value));
+        }
+        if (type == Float.class) {
+            return writeConstant(InlineValues.FLOAT) + write(Float.floatToRawIntBits((Float) value));
+        }
+        if (type == Short.class) {
+            return writeConstant(InlineValues.SHORT) + write((short) (Short) value);
+        }
+        if (type == Byte.class) {
+            return writeConstant(InlineValues.BYTE) + write((byte) (Byte) value);
+        }
+        if (type == Character.class) {
+            return writeConstant(InlineValues.CHAR) + write((short) (char) (Character) value);
+        }
+        return 0;
+    }
+
+    private int writeConstant(int kind) {
+        return writeSlot(kind, InlineValues.TAG_CONSTANT);
+    }
+
+    private int writeSlot(int payload, int tag) {
+        return incPos(ChioneFormat.writeVarInt(delegate, InlineValues.slot(payload, tag)));
+    }
+
     private int incPos(int size) {
         pos += size;
         return size;
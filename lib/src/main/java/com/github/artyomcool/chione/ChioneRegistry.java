@@ -30,11 +30,40 @@ import java.util.Deque;
 public class ChioneRegistry implements ReferenceRegistry {
 
     private final Deque<Object> remainsToWrite = new ArrayDeque<>(32);
-    private final ReferenceAllocator referenceAllocator = new ReferenceAllocator();
+    private final ReferenceAllocator referenceAllocator;
     private final Recollection<Object> recollection;
+    private final ChioneDictionary dictionary;
+    private final DeduplicationPolicy deduplication;
+    private StampSession session = new StampSession();
+
+    /**
+     * Set once a {@link Stamped} object owned by another session is met; from then on unclaimed objects are
+     * remembered by the recollection only, so an object is never registered twice.
+     */
+    private boolean contended;
 
     public ChioneRegistry(Recollection<Object> recollection) {
+        this(recollection, ChioneDictionary.LEGACY);
+    }
+
+    public ChioneRegistry(Recollection<Object> recollection, ChioneDictionary dictionary) {
+        this(recollection, dictionary, recollection instanceof RecollectionRegistry
+                ? ((RecollectionRegistry) recollection).deduplication()
+                : DeduplicationPolicy.DEFAULT);
+    }
+
+    /**
+     * @param deduplication policy of the recollection; deduplicated {@link Stamped} objects are passed to the
+     *                      recollection instead of being stamped
+     */
+    public ChioneRegistry(Recollection<Object> recollection,
+                          ChioneDictionary dictionary,
+                          DeduplicationPolicy deduplication) {
         this.recollection = recollection;
+        this.dictionary = dictionary;
+        this.deduplication = deduplication;
+        this.referenceAllocator = new ReferenceAllocator(dictionary.firstReference());
+        dictionary.reserve(recollection);
     }
 
     @Override
@@ -43,6 +72,21 @@ public class ChioneRegistry implements ReferenceRegistry {
             return NULL_REF;
         }
 
+        if (obj instanceof Stamped && !deduplication.deduplicates(obj.getClass())) {
+            Stamped stamped = (Stamped) obj;
+            int id = stamped.chioneReference(session);
+            if (id >= 0) {
+                return id;
+            }
+            if (!contended && stamped.chioneClaim(session)) {
+                id = referenceAllocator.nextReference();
+                stamped.chioneStamp(id);
+                remainsToWrite.push(obj);
+                return id;
+            }
+            contended = true;
+        }
+
         int id = recollection.remember(obj, referenceAllocator);
 
         if (id >= 0) {
@@ -57,4 +101,23 @@ public class ChioneRegistry implements ReferenceRegistry {
         return remainsToWrite.pollLast();
     }
 
+    /**
+     * Releases the references stamped by this registry, so other registries can stamp the same objects.
+     */
+    public void finish() {
+        session.finish();
+    }
+
+    /**
+     * Prepares the registry for the next graph; the recollection must be cleared beforehand.
+     */
+    void reset() {
+        finish();
+        session = new StampSession();
+        contended = false;
+        remainsToWrite.clear();
+        referenceAllocator.reset(dictionary.firstReference());
+        dictionary.reserve(recollection);
+    }
+
 }
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Serializes and eagerly deserializes graphs one by one, keeping the reference tables, buffers and wrappers
+ * of the previous graph instead of allocating them again.
+ * <p>
+ * The state of the last graph is kept until the next call or {@link #reset()}. Once the session moves on,
+ * {@link Lazy} values of the previously read graph can't be loaded anymore.
+ */
+@NotThreadSafe
+public class ChioneSession {
+
+    private final Chione chione;
+
+    private RecollectionRegistry recollection;
+    private ChioneRegistry registry;
+    private ChioneOutputWrapper output;
+    private int[] offsets;
+    private boolean written;
+
+    private ObjectTable.ReusableTable table;
+    private ChioneInputWrapper input;
+
+    ChioneSession(Chione chione) {
+        this.chione = chione;
+    }
+
+    public void serialize(Object rock, DataOutput output) {
+        ChioneFormat format = chione.format();
+        if (registry == null) {
+            recollection = new RecollectionRegistry(chione.deduplication());
+            registry = new ChioneRegistry(recollection, chione.dictionary(format), chione.deduplication());
+            this.output = new ChioneOutputWrapper(output, registry, format);
+            offsets = new int[Chione.TABLE_BLOCK_SIZE];
+        } else {
+            resetWriter();
+            this.output.reset(output);
+        }
+
+        written = true;
+        try {
+            chione.writeHeader(this.output, rock);
+
+            int objectsOffset = format.has(ChioneFormat.CONTIGUOUS_INDEX)
+                    ? pollContiguous()
+                    : poll();
+
+            chione.writeTrailer(this.output, objectsOffset);
+        } finally {
+            registry.finish();
+        }
+    }
+
+    /**
+     * Eagerly deserializes the graph, like {@link Chione#deserialize(DataInput, boolean)} with {@code lazy = false}.
+     */
+    public <T> T deserialize(DataInput input) {
+        resetReader();
+
+        ChioneFormat format = chione.readFormat(input);
+        ChioneDictionary dictionary = chione.readDictionary(input, format);
+        int startPos = input.pos();
+
+        int objectsOffset = chione.readTableOffset(input);
+        if (table == null) {
+            table = ObjectTable.reusable();
+        }
+        table.load(input, objectsOffset, format);
+
+        input.seek(startPos);
+
+        if (this.input == null) {
+            this.input = new ChioneInputWrapper(chione.serializer(), input, table, format, dictionary);
+        } else {
+            this.input.reset(input, format, dictionary);
+        }
+        return this.input.readReference();
+    }
+
+    /**
+     * Drops the references to the last written and read graphs and their outputs, keeping the allocated state.
+     */
+    public void reset() {
+        resetWriter();
+        resetReader();
+        if (output != null) {
+            output.reset(null);
+        }
+        if (input != null) {
+            input.release();
+        }
+    }
+
+    private void resetWriter() {
+        if (written) {
+            recollection.clear();
+            registry.reset();
+            written = false;
+        }
+    }
+
+    private void resetReader() {
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    private int poll() {
+        int[] block = offsets;
+        int current = 0;
+        int prevOffset = 0;
+
+        while (true) {
+            Object next = registry.poll();
+            if (next == null) {
+                break;
+            }
+            block[current++] = chione.writeObject(output, next);
+
+            if (current == Chione.TABLE_BLOCK_SIZE) {
+                prevOffset = chione.writeTable(output, block, 0, current, prevOffset);
+                current = 0;
+            }
+        }
+        if (current != 0) {
+            prevOffset = chione.writeTable(output, block, 0, current, prevOffset);
+        }
+        return prevOffset;
+    }
+
+    private int pollContiguous() {
+        int count = 0;
+
+        while (true) {
+            Object next = registry.poll();
+            if (next == null) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = chione.writeObject(output, next);
+        }
+
+        return chione.writeContiguousTable(output, offsets, count);
+    }
+
+}
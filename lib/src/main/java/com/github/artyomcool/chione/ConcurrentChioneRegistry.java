@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ReferenceRegistry} shared by the workers of a parallel serialization.
+ * Follows the same identity rules as {@link RecollectionRegistry}: values chosen by the {@link DeduplicationPolicy}
+ * are deduplicated by equality, everything else by identity. Near the limit of the policy a value may
+ * occasionally get two references, which only costs a duplicate copy of it.
+ * <p>
+ * Every newly registered object is queued together with its reference; the registry counts the objects
+ * that are queued or being written, so {@link #take()} knows when the whole graph is done. Idle workers block
+ * in {@link #take()} instead of spinning.
+ */
+@ThreadSafe
+class ConcurrentChioneRegistry implements ReferenceRegistry {
+
+    private static final int UNASSIGNED = Integer.MIN_VALUE;
+
+    private final DeduplicationPolicy deduplication;
+    private final ConcurrentMap<Object, Slot> equalityRefs = new ConcurrentHashMap<>();
+    private final AtomicInteger values = new AtomicInteger();
+    private final ConcurrentMap<IdentityKey, Slot> identityRefs = new ConcurrentHashMap<>();
+    private final int firstReference;
+    private final AtomicInteger nextReference;
+
+    private final Queue<Entry> remainsToWrite = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Object lock = new Object();
+    private volatile int waiters;
+    private volatile boolean aborted;
+
+    ConcurrentChioneRegistry(DeduplicationPolicy deduplication, ChioneDictionary dictionary) {
+        this.deduplication = deduplication;
+        this.firstReference = dictionary.firstReference();
+        this.nextReference = new AtomicInteger(firstReference);
+        dictionary.reserve(new Recollection<Object>() {
+            @Override
+            public int remember(Object obj, ReferenceAllocator referenceAllocator) {
+                Slot slot = new Slot(referenceAllocator.nextReference());
+                if (deduplicates(obj)) {
+                    equalityRefs.put(obj, slot);
+                } else {
+                    identityRefs.put(new IdentityKey(obj), slot);
+                }
+                return slot.ref;
+            }
+        });
+    }
+
+    @Override
+    public int ref(Object obj) {
+        if (obj == null) {
+            return NULL_REF;
+        }
+        if (deduplicates(obj)) {
+            Slot slot = equalityRefs.get(obj);
+            if (slot != null) {
+                return slot.await();
+            }
+            if (values.get() < deduplication.limit() && values.incrementAndGet() <= deduplication.limit()) {
+                return ref(equalityRefs, obj, obj);
+            }
+        }
+        return ref(identityRefs, new IdentityKey(obj), obj);
+    }
+
+    private <K> int ref(ConcurrentMap<K, Slot> refs, K key, Object obj) {
+        Slot slot = refs.get(key);
+        if (slot == null) {
+            Slot created = new Slot(UNASSIGNED);
+            slot = refs.putIfAbsent(key, created);
+            if (slot == null) {
+                int ref = nextReference.getAndIncrement();
+                pending.incrementAndGet();
+                remainsToWrite.add(new Entry(obj, ref));
+                created.assign(ref);
+                signal();
+                return ref;
+            }
+        }
+
+        return slot.await();
+    }
+
+    private boolean deduplicates(Object obj) {
+        return deduplication.deduplicates(obj.getClass());
+    }
+
+    /**
+     * @return reference of the first object written into the image, which takes the first entry of the object table
+     */
+    int firstReference() {
+        return firstReference;
+    }
+
+    /**
+     * Returns the next object to write, waiting while the objects being written by other workers may register more.
+     *
+     * @return {@code null} once every registered object is written or the serialization is {@link #abort() aborted}
+     */
+    Entry take() {
+        Entry next = remainsToWrite.poll();
+        if (next != null) {
+            return next;
+        }
+        synchronized (lock) {
+            waiters++;
+            try {
+                while (true) {
+                    next = remainsToWrite.poll();
+                    if (next != null || aborted || pending.get() == 0) {
+                        return next;
+                    }
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChioneException(e);
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Must be called once an object returned by {@link #take()} is completely written.
+     */
+    void written() {
+        if (pending.decrementAndGet() == 0) {
+            signal();
+        }
+    }
+
+    /**
+     * Releases the workers waiting in {@link #take()} after one of them has failed, so the graph will never be done.
+     */
+    void abort() {
+        aborted = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void signal() {
+        if (waiters > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    static class Entry {
+        final Object obj;
+        final int ref;
+
+        Entry(Object obj, int ref) {
+            this.obj = obj;
+            this.ref = ref;
+        }
+    }
+
+    private static class Slot {
+
+        volatile int ref;
+        private volatile boolean awaited;
+
+        Slot(int ref) {
+            this.ref = ref;
+        }
+
+        /**
+         * Waits for the worker that has registered the object to assign its reference.
+         */
+        int await() {
+            int ref = this.ref;
+            if (ref != UNASSIGNED) {
+                return ref;
+            }
+            synchronized (this) {
+                awaited = true;
+                try {
+                    while ((ref = this.ref) == UNASSIGNED) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ChioneException(e);
+                }
+            }
+            return ref;
+        }
+
+        void assign(int ref) {
+            this.ref = ref;
+            if (awaited) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static class IdentityKey {
+
+        private final Object obj;
+
+        IdentityKey(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey && ((IdentityKey) o).obj == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(obj);
+        }
+    }
+
+}
@@ -47,4 +47,24 @@ public interface DataInput {
 
     String readString();
 
+    void readBytes(byte[] dst, int offset, int length);
+
+    void readShorts(short[] dst, int offset, int length);
+
+    void readChars(char[] dst, int offset, int length);
+
+    void readInts(int[] dst, int offset, int length);
+
+    void readLongs(long[] dst, int offset, int length);
+
+    void readFloats(float[] dst, int offset, int length);
+
+    void readDoubles(double[] dst, int offset, int length);
+
+    /**
+     * Creates a view of the same content with its own position, starting at the current one.
+     * Views may be read concurrently with each other, but are not meant for writing.
+     */
+    DataInput duplicate();
+
 }
@@ -38,4 +38,18 @@ public interface DataOutput {
 
     int write(byte[] data);
 
+    int write(byte[] src, int offset, int length);
+
+    int write(short[] src, int offset, int length);
+
+    int write(char[] src, int offset, int length);
+
+    int write(int[] src, int offset, int length);
+
+    int write(long[] src, int offset, int length);
+
+    int write(float[] src, int offset, int length);
+
+    int write(double[] src, int offset, int length);
+
 }
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which objects are written once per equal value instead of once per instance.
+ * Deduplicated objects lose their identity: equal values are shared after loading.
+ * <p>
+ * At most {@link #limit()} distinct values are remembered by equality during one serialization;
+ * values seen after that are tracked by identity, so memory of the writer stays bounded.
+ * <p>
+ * {@link ChioneDescriptor Descriptors} are always deduplicated, whatever the policy is.
+ */
+@Immutable
+public final class DeduplicationPolicy {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * Strings only, without a limit. Any other object keeps its identity, as in earlier versions.
+     */
+    public static final DeduplicationPolicy DEFAULT = new DeduplicationPolicy(
+            Collections.<Class<?>>singletonList(String.class),
+            false,
+            UNBOUNDED
+    );
+
+    /**
+     * Strings, boxed primitives, enums and {@link ImmutableValue ImmutableValues}. Distinct but equal boxes,
+     * such as two {@code new Integer(42)}, are loaded as the same instance.
+     */
+    public static final DeduplicationPolicy VALUES = new DeduplicationPolicy(
+            Arrays.<Class<?>>asList(
+                    String.class,
+                    Boolean.class,
+                    Byte.class,
+                    Short.class,
+                    Character.class,
+                    Integer.class,
+                    Long.class,
+                    Float.class,
+                    Double.class,
+                    Enum.class
+            ),
+            true,
+            1 << 22
+    );
+
+    private final List<Class<?>> valueTypes;
+    private final boolean immutableValues;
+    private final int limit;
+
+    private final ClassValue<Boolean> deduplicated = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            if (ChioneDescriptor.class.isAssignableFrom(type)) {
+                return true;
+            }
+            if (immutableValues && ImmutableValue.class.isAssignableFrom(type)) {
+                return true;
+            }
+            for (Class<?> valueType : valueTypes) {
+                if (valueType.isAssignableFrom(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    private DeduplicationPolicy(List<Class<?>> valueTypes, boolean immutableValues, int limit) {
+        this.valueTypes = valueTypes;
+        this.immutableValues = immutableValues;
+        this.limit = limit;
+    }
+
+    /**
+     * @param type class or interface whose instances implement {@code equals} and {@code hashCode} by value
+     *             and are not modified after being written
+     */
+    public DeduplicationPolicy withValueType(Class<?> type) {
+        List<Class<?>> types = new ArrayList<>(valueTypes);
+        types.add(type);
+        return new DeduplicationPolicy(Collections.unmodifiableList(types), immutableValues, limit);
+    }
+
+    /**
+     * @param immutableValues whether {@link ImmutableValue ImmutableValues}, such as {@code @Ice(immutable = true)}
+     *                        objects, are deduplicated
+     */
+    public DeduplicationPolicy withImmutableValues(boolean immutableValues) {
+        return new DeduplicationPolicy(valueTypes, immutableValues, limit);
+    }
+
+    public DeduplicationPolicy withLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative limit: " + limit);
+        }
+        return new DeduplicationPolicy(valueTypes, immutableValues, limit);
+    }
+
+    public boolean deduplicates(Class<?> type) {
+        return deduplicated.get(type);
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+}
@@ -24,9 +24,6 @@
 
 package com.github.artyomcool.chione;
 
-import java.util.HashMap;
-import java.util.Map;
-
 class HashMapInt<K> extends MapInt<K> {
 
     HashMapInt(int initialCapacity, float loadFactor) {
@@ -42,9 +39,4 @@ class HashMapInt<K> extends MapInt<K> {
     boolean equals(K e1, K e2) {
         return e1.equals(e2);
     }
-
-    @Override
-    Map<K, Integer> allocateCollisionTable(int initialCapacity, float loadFactor) {
-        return new HashMap<>();
-    }
 }
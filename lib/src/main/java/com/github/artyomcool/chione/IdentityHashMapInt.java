@@ -24,9 +24,6 @@
 
 package com.github.artyomcool.chione;
 
-import java.util.IdentityHashMap;
-import java.util.Map;
-
 class IdentityHashMapInt<K> extends MapInt<K> {
 
     IdentityHashMapInt(int initialCapacity, float loadFactor) {
@@ -42,9 +39,4 @@ class IdentityHashMapInt<K> extends MapInt<K> {
     boolean equals(K e1, K e2) {
         return e1 == e2;
     }
-
-    @Override
-    Map<K, Integer> allocateCollisionTable(int initialCapacity, float loadFactor) {
-        return new IdentityHashMap<>();
-    }
 }
@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+/**
+ * Reference slots of {@link ChioneFormat#INLINE_VALUES}: a varint {@code payload << 2 | tag}.
+ * A reference slot keeps {@code ref + 1} as its payload, an int slot a zigzag-encoded value,
+ * a string slot is followed by the string and a constant slot by the value of the kind of its payload.
+ */
+final class InlineValues {
+
+    static final int TAG_BITS = 2;
+    static final int TAG_MASK = (1 << TAG_BITS) - 1;
+
+    static final int TAG_REFERENCE = 0;
+    static final int TAG_INT = 1;
+    static final int TAG_STRING = 2;
+    static final int TAG_CONSTANT = 3;
+
+    static final int MAX_PAYLOAD = -1 >>> TAG_BITS;
+    static final int MAX_STRING_LENGTH = 16;
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int INT = 2;
+    static final int LONG = 3;
+    static final int FLOAT = 4;
+    static final int DOUBLE = 5;
+    static final int SHORT = 6;
+    static final int BYTE = 7;
+    static final int CHAR = 8;
+
+    private InlineValues() {
+    }
+
+    static int slot(int payload, int tag) {
+        return payload << TAG_BITS | tag;
+    }
+
+}
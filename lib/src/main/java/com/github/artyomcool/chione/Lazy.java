@@ -75,13 +75,18 @@ public class Lazy<T> {
     private static class LazyData {
         private final ChioneDataInput input;
         private final int pos;
+        private final int generation;
 
         private LazyData(ChioneDataInput input, int pos) {
             this.input = input;
             this.pos = pos;
+            this.generation = generation(input);
         }
 
         public Object inflate() {
+            if (generation(input) != generation) {
+                throw new ChioneException("The image of the lazy value has been released by its ChioneSession");
+            }
             int oldPos = input.pos();
             input.seek(pos);
             try {
@@ -90,6 +95,10 @@ public class Lazy<T> {
                 input.seek(oldPos);
             }
         }
+
+        private static int generation(ChioneDataInput input) {
+            return input instanceof ChioneInputWrapper ? ((ChioneInputWrapper) input).generation() : 0;
+        }
     }
 
 }
@@ -24,116 +24,142 @@
 
 package com.github.artyomcool.chione;
 
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * Open-addressing object to int map with linear probing over a power-of-two table.
+ */
 abstract class MapInt<K> {
 
-    private static final int HASH_TRY_COUNT = 3;
+    private static final int MAX_CAPACITY = 1 << 30;
 
     private final float loadFactor;
 
     private Object[] tableKeys;
     private int[] tableValues;
+    private int mask;
     private int load;
     private int resizeAt;
 
-    private final Map<K, Integer> collisionTable;
-
     MapInt(int initialCapacity, float loadFactor) {
+        if (loadFactor <= 0 || loadFactor >= 1) {
+            throw new IllegalArgumentException("Load factor should be in (0, 1): " + loadFactor);
+        }
         this.loadFactor = loadFactor;
-
-        int tableSize = (int) (initialCapacity / loadFactor);
-        this.tableKeys = new Object[tableSize];
-        this.tableValues = new int[tableSize];
-        this.load = 0;
-        this.resizeAt = initialCapacity;
-
-        //TODO resolve collision through in-place secondary hash/tree
-        this.collisionTable = allocateCollisionTable(initialCapacity / 2, loadFactor);
+        allocate(tableSizeFor((int) Math.ceil(initialCapacity / loadFactor)));
     }
 
     public int putIfAbsent(K element, ReferenceAllocator allocator) {
-        int hash = getHash(element);  //TODO murmur?
+        Object[] keys = tableKeys;
+        int index = mix(getHash(element)) & mask;
 
-        int index = -1;
-        Object key = null;
-
-        for (int t = 0; t < HASH_TRY_COUNT; t++) {
-            index = ((hash + t) & 0x7fffffff) % tableKeys.length;
-            key = tableKeys[index];
+        for (;;) {
+            Object key = keys[index];
+            if (key == null) {
+                break;
+            }
             @SuppressWarnings("unchecked")
             K castedKey = (K) key;
             if (equals(element, castedKey)) {
                 return tableValues[index];
             }
-            if (key == null) {
-                break;
-            }
+            index = (index + 1) & mask;
         }
 
-        Integer integer = collisionTable.get(element);
-        if (integer != null) {
-            return integer;
+        int value = allocator.nextReference();
+        keys[index] = element;
+        tableValues[index] = value;
+        if (++load >= resizeAt) {
+            resize();
         }
 
-        int value = allocator.nextReference();
+        return ~value;
+    }
+
+    /**
+     * @return value of the element or {@link ReferenceRegistry#NULL_REF} if it is absent
+     */
+    public int get(K element) {
+        Object[] keys = tableKeys;
+        int index = mix(getHash(element)) & mask;
 
-        if (key == null) {
-            tableKeys[index] = element;
-            tableValues[index] = value;
-            if (++load >= resizeAt) {
-                resize(resizeAt * 3 / 2 + 1);
+        for (;;) {
+            Object key = keys[index];
+            if (key == null) {
+                return ReferenceRegistry.NULL_REF;
             }
-        } else {
-            collisionTable.put(element, value);
+            @SuppressWarnings("unchecked")
+            K castedKey = (K) key;
+            if (equals(element, castedKey)) {
+                return tableValues[index];
+            }
+            index = (index + 1) & mask;
         }
+    }
 
-        return ~value;
+    public int size() {
+        return load;
+    }
+
+    /**
+     * Removes all the entries, keeping the allocated table.
+     */
+    public void clear() {
+        if (load > 0) {
+            Arrays.fill(tableKeys, null);
+            load = 0;
+        }
     }
 
     abstract int getHash(K element);
 
     abstract boolean equals(K e1, K e2);
 
-    abstract Map<K, Integer> allocateCollisionTable(int initialCapacity, float loadFactor);
-
-    private void resize(int newResizeAt) {
-        int tableSize = (int) (newResizeAt / loadFactor);
-
-        Object[] newKeys = new Object[tableSize];
-        int[] newValues = new int[tableSize];
+    private void allocate(int tableSize) {
+        tableKeys = new Object[tableSize];
+        tableValues = new int[tableSize];
+        mask = tableSize - 1;
+        resizeAt = tableSize == MAX_CAPACITY ? tableSize - 1 : (int) (tableSize * loadFactor);
+    }
 
+    private void resize() {
         Object[] oldKeys = this.tableKeys;
         int[] oldValues = this.tableValues;
+        if (oldKeys.length == MAX_CAPACITY) {
+            throw new ChioneException("Too many objects: " + load);
+        }
+
+        allocate(oldKeys.length * 2);
 
-        nextKey: for (int i = 0; i < oldKeys.length; i++) {
+        Object[] keys = tableKeys;
+        int[] values = tableValues;
+        for (int i = 0; i < oldKeys.length; i++) {
             Object key = oldKeys[i];
             if (key == null) {
                 continue;
             }
 
             @SuppressWarnings("unchecked")
-            int hash = getHash((K) key);
-            int value = oldValues[i];
-
-            for (int t = 0; t < HASH_TRY_COUNT; t++) {
-                int index = (hash & 0x7fffffff) % newKeys.length;
-                Object collidedKey = newKeys[index];
-                if (collidedKey == null) {
-                    newKeys[index] = key;
-                    newValues[index] = value;
-                    continue nextKey;
-                }
+            int index = mix(getHash((K) key)) & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
             }
+            keys[index] = key;
+            values[index] = oldValues[i];
+        }
+    }
 
-            @SuppressWarnings("unchecked")
-            K typedKey = (K) key;
-            collisionTable.put(typedKey, value);
+    private static int tableSizeFor(int capacity) {
+        if (capacity >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
         }
+        return Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+    }
 
-        resizeAt = newResizeAt;
-        tableKeys = newKeys;
-        tableValues = newValues;
+    private static int mix(int hash) {
+        // identity and String hashes are poorly distributed in the low bits, which are the only ones masked in
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
     }
 
 }
@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import java.util.Arrays;
+
+/**
+ * Object table of an image being read: the offset of every stored object and the objects inflated so far.
+ */
+abstract class ObjectTable {
+
+    private static final int TABLE_CAPACITY = 1024;
+
+    private final Objects objects;
+
+    ObjectTable(int size, boolean lazy) {
+        this(lazy ? new SparseObjects() : new DenseObjects(size));
+    }
+
+    private ObjectTable(Objects objects) {
+        this.objects = objects;
+    }
+
+    abstract int size();
+
+    abstract int offset(int ref);
+
+    Object get(int ref) {
+        return objects.get(ref);
+    }
+
+    void put(int ref, Object obj) {
+        objects.put(ref, obj);
+    }
+
+    /**
+     * Table of linked blocks. In the eager mode all the blocks are decoded at once,
+     * in the lazy one a block is decoded when an object of it is requested for the first time.
+     */
+    static ObjectTable linked(DataInput input, int tableOffset, ChioneFormat format, boolean lazy) {
+        BlockList blocks = new BlockList(input, tableOffset, format);
+        if (lazy) {
+            return new LazyBlockTable(blocks);
+        }
+        int[] offsets = new int[blocks.size];
+        blocks.decodeAll(offsets);
+        return new ArrayTable(offsets);
+    }
+
+    /**
+     * Reads all the offsets of either kind of the table into an array, so {@link #offset(int)} doesn't touch the input
+     * and may be called concurrently.
+     */
+    static ObjectTable loaded(DataInput input, int tableOffset, ChioneFormat format) {
+        if (!format.has(ChioneFormat.CONTIGUOUS_INDEX)) {
+            return linked(input, tableOffset, format, false);
+        }
+        input.seek(tableOffset);
+        int[] offsets = new int[input.readInt()];
+        input.readInts(offsets, 0, offsets.length);
+        return new ArrayTable(offsets);
+    }
+
+    /**
+     * Table of {@link ChioneFormat#CONTIGUOUS_INDEX}: offsets are read right from the input, nothing is decoded upfront.
+     */
+    static ObjectTable contiguous(DataInput input, int indexOffset, boolean lazy) {
+        input.seek(indexOffset);
+        int size = input.readInt();
+        return new ContiguousTable(input, indexOffset + DataInput.INT_SIZE, size, lazy);
+    }
+
+    /**
+     * Eager table of either kind that keeps its arrays between images, see {@link ChioneSession}.
+     */
+    static ReusableTable reusable() {
+        return new ReusableTable(new DenseObjects(TABLE_CAPACITY));
+    }
+
+    static class ReusableTable extends ObjectTable {
+
+        private final DenseObjects objects;
+        private int[] offsets = new int[TABLE_CAPACITY];
+        private int size;
+
+        private ReusableTable(DenseObjects objects) {
+            super(objects);
+            this.objects = objects;
+        }
+
+        void load(DataInput input, int tableOffset, ChioneFormat format) {
+            int size;
+            if (format.has(ChioneFormat.CONTIGUOUS_INDEX)) {
+                input.seek(tableOffset);
+                size = input.readInt();
+                ensureCapacity(size);
+                input.readInts(offsets, 0, size);
+            } else {
+                BlockList blocks = new BlockList(input, tableOffset, format);
+                size = blocks.size;
+                ensureCapacity(size);
+                blocks.decodeAll(offsets);
+            }
+            this.size = size;
+        }
+
+        /**
+         * Forgets the image and the inflated objects, keeping the arrays.
+         */
+        void clear() {
+            objects.clear(size);
+            size = 0;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int offset(int ref) {
+            if (ref >= size) {
+                throw new ChioneException("Unknown reference: " + ref);
+            }
+            return offsets[ref];
+        }
+
+        private void ensureCapacity(int size) {
+            if (size > offsets.length) {
+                offsets = new int[Math.max(size, offsets.length * 2)];
+            }
+            objects.ensureCapacity(offsets.length);
+        }
+    }
+
+    private static class ArrayTable extends ObjectTable {
+
+        private final int[] offsets;
+
+        ArrayTable(int[] offsets) {
+            super(offsets.length, false);
+            this.offsets = offsets;
+        }
+
+        @Override
+        int size() {
+            return offsets.length;
+        }
+
+        @Override
+        int offset(int ref) {
+            return offsets[ref];
+        }
+    }
+
+    private static class LazyBlockTable extends ObjectTable {
+
+        private final BlockList blocks;
+        private final int[][] decoded;
+
+        LazyBlockTable(BlockList blocks) {
+            super(blocks.size, true);
+            this.blocks = blocks;
+            this.decoded = new int[blocks.count][];
+        }
+
+        @Override
+        int size() {
+            return blocks.size;
+        }
+
+        @Override
+        int offset(int ref) {
+            int block = blocks.blockOf(ref);
+            int[] offsets = decoded[block];
+            if (offsets == null) {
+                offsets = new int[blocks.sizes[block]];
+                blocks.decode(block, offsets, 0);
+                decoded[block] = offsets;
+            }
+            return offsets[ref - blocks.starts[block]];
+        }
+    }
+
+    private static class ContiguousTable extends ObjectTable {
+
+        private final DataInput input;
+        private final int offsetsStart;
+        private final int size;
+
+        ContiguousTable(DataInput input, int offsetsStart, int size, boolean lazy) {
+            super(size, lazy);
+            this.input = input;
+            this.offsetsStart = offsetsStart;
+            this.size = size;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int offset(int ref) {
+            if (ref >= size) {
+                throw new ChioneException("Unknown reference: " + ref);
+            }
+            input.seek(offsetsStart + ref * DataInput.INT_SIZE);
+            return input.readInt();
+        }
+    }
+
+    private abstract static class Objects {
+
+        abstract Object get(int ref);
+
+        abstract void put(int ref, Object obj);
+    }
+
+    private static class DenseObjects extends Objects {
+
+        private Object[] objects;
+
+        DenseObjects(int size) {
+            this.objects = new Object[size];
+        }
+
+        void ensureCapacity(int size) {
+            if (size > objects.length) {
+                objects = new Object[size];
+            }
+        }
+
+        void clear(int size) {
+            Arrays.fill(objects, 0, size, null);
+        }
+
+        @Override
+        Object get(int ref) {
+            return objects[ref];
+        }
+
+        @Override
+        void put(int ref, Object obj) {
+            objects[ref] = obj;
+        }
+    }
+
+    /**
+     * Open addressing hash table sized by the count of the inflated objects rather than by the size of the image.
+     */
+    private static class SparseObjects extends Objects {
+
+        private static final int FREE = -1;
+
+        private int[] keys = newKeys(16);
+        private Object[] values = new Object[16];
+        private int count;
+
+        @Override
+        Object get(int ref) {
+            int mask = keys.length - 1;
+            for (int i = mix(ref) & mask; ; i = (i + 1) & mask) {
+                int key = keys[i];
+                if (key == ref) {
+                    return values[i];
+                }
+                if (key == FREE) {
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        void put(int ref, Object obj) {
+            int mask = keys.length - 1;
+            int i = mix(ref) & mask;
+            while (keys[i] != FREE && keys[i] != ref) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == FREE) {
+                if ((count + 1) * 2 > keys.length) {
+                    rehash();
+                    put(ref, obj);
+                    return;
+                }
+                keys[i] = ref;
+                count++;
+            }
+            values[i] = obj;
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new Object[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                int key = oldKeys[j];
+                if (key != FREE) {
+                    int i = mix(key) & mask;
+                    while (keys[i] != FREE) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = key;
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static int[] newKeys(int size) {
+            int[] keys = new int[size];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+
+        private static int mix(int ref) {
+            int h = ref * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Table blocks in reference order. Blocks are linked from the last one, so the list is collected backwards.
+     * An image without objects has no blocks and the table offset 0.
+     */
+    private static class BlockList {
+
+        private final DataInput input;
+        private final ChioneFormat format;
+
+        final int count;
+        final int size;
+        final int[] offsets;
+        final int[] sizes;
+        final int[] starts;
+
+        BlockList(DataInput input, int tableOffset, ChioneFormat format) {
+            this.input = input;
+            this.format = format;
+
+            int count = 0;
+            for (int prevOffset = tableOffset; prevOffset != 0; count++) {
+                input.seek(prevOffset);
+                prevOffset = format.readCount(input);
+                format.readCount(input);
+            }
+
+            this.count = count;
+            this.offsets = new int[count];
+            this.sizes = new int[count];
+            this.starts = new int[count];
+
+            int prevOffset = tableOffset;
+            for (int i = count - 1; i >= 0; i--) {
+                offsets[i] = prevOffset;
+                input.seek(prevOffset);
+                prevOffset = format.readCount(input);
+                sizes[i] = format.readCount(input);
+            }
+
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                starts[i] = size;
+                size += sizes[i];
+            }
+            this.size = size;
+        }
+
+        int blockOf(int ref) {
+            int index = Arrays.binarySearch(starts, ref);
+            if (index >= 0) {
+                return index;
+            }
+            return -index - 2;
+        }
+
+        void decodeAll(int[] dst) {
+            for (int i = 0; i < count; i++) {
+                decode(i, dst, starts[i]);
+            }
+        }
+
+        void decode(int block, int[] dst, int dstOffset) {
+            input.seek(offsets[block]);
+            format.readCount(input);
+            format.readCount(input);
+
+            boolean deltas = format.has(ChioneFormat.VAR_INTS);
+            int last = 0;
+            for (int i = 0; i < sizes[block]; i++) {
+                int value = format.readCount(input);
+                if (deltas) {
+                    value = ChioneFormat.unZigZag(value) + last;
+                    last = value;
+                }
+                dst[dstOffset + i] = value;
+            }
+        }
+    }
+
+}
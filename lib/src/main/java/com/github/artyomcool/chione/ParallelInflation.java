@@ -0,0 +1,239 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coordination of {@link Chione#deserialize(DataInput, Executor, int)}.
+ * <p>
+ * Workers sweep the object table in chunks, each through its own {@link ChioneInputWrapper} over a
+ * {@link DataInput#duplicate()} of the input. Every reference is claimed by exactly one worker, which inflates it
+ * the usual way, recursively claiming the free objects it refers to. An object claimed by another worker is awaited
+ * until it is completely inflated. If awaiting would close a cycle of workers waiting for each other, the already
+ * hooked shell of the object is used instead, the same way the sequential reader resolves cyclic references.
+ */
+@ThreadSafe
+class ParallelInflation {
+
+    static final Object CLAIMED = new Object();
+
+    private static final int CHUNK_SIZE = 256;
+
+    private static final int FREE = 0;
+    private static final int IN_PROGRESS = 1;
+    private static final int HOOKED = 2;
+    private static final int DONE = 3;
+    private static final int PHASE_BITS = 2;
+    private static final int PHASE_MASK = (1 << PHASE_BITS) - 1;
+
+    private final ObjectTable objects;
+    private final AtomicIntegerArray states;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final Object lock = new Object();
+    private final int[] waitingFor;
+    private volatile int waiters;
+
+    /**
+     * @param workers count of workers; worker ids are {@code 0..workers}, where 0 is reserved for the caller
+     */
+    ParallelInflation(ObjectTable objects, int workers) {
+        this.objects = objects;
+        this.states = new AtomicIntegerArray(objects.size());
+        this.waitingFor = new int[workers + 1];
+        Arrays.fill(waitingFor, -1);
+    }
+
+    void run(final ChioneSerializer<Object> serializer,
+             final DataInput input,
+             final ChioneFormat format,
+             final ChioneDictionary dictionary,
+             Executor executor,
+             int parallelism) {
+        final CountDownLatch done = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            final int worker = i + 1;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            sweep(new ChioneInputWrapper(serializer, input.duplicate(), objects, format, dictionary, ParallelInflation.this, worker));
+                        } catch (Throwable t) {
+                            fail(t);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                fail(e);
+                for (; i < parallelism; i++) {
+                    done.countDown();
+                }
+            }
+        }
+        Util.awaitTasks(done, failure);
+    }
+
+    private void sweep(ChioneInputWrapper wrapper) {
+        int size = states.length();
+        while (failure.get() == null) {
+            int from = nextChunk.getAndIncrement() * CHUNK_SIZE;
+            if (from >= size) {
+                break;
+            }
+            int to = Math.min(size, from + CHUNK_SIZE);
+            for (int ref = from; ref < to; ref++) {
+                if (states.get(ref) == FREE) {
+                    wrapper.inflate(ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the object, or {@link #CLAIMED} if the caller has claimed it and must inflate it now
+     */
+    Object acquire(int ref, int worker) {
+        int state = states.get(ref);
+        if (phase(state) == DONE) {
+            return objects.get(ref);
+        }
+        if (state == FREE && states.compareAndSet(ref, FREE, state(worker, IN_PROGRESS))) {
+            return CLAIMED;
+        }
+        if (owner(state) == worker) {
+            return shell(ref, state);
+        }
+        return await(ref, worker);
+    }
+
+    void hooked(int ref, int worker) {
+        states.set(ref, state(worker, HOOKED));
+    }
+
+    void done(int ref) {
+        states.set(ref, DONE);
+        if (waiters > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure.compareAndSet(null, t);
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private Object await(int ref, int worker) {
+        synchronized (lock) {
+            waiters++;
+            try {
+                while (true) {
+                    if (failure.get() != null) {
+                        throw new ChioneException("Parallel deserialization has failed in another worker");
+                    }
+                    int state = states.get(ref);
+                    if (phase(state) == DONE) {
+                        return objects.get(ref);
+                    }
+                    if (state == FREE) {
+                        if (states.compareAndSet(ref, FREE, state(worker, IN_PROGRESS))) {
+                            return CLAIMED;
+                        }
+                        continue;
+                    }
+                    if (closesCycle(owner(state), worker)) {
+                        return shell(ref, state);
+                    }
+
+                    waitingFor[worker] = ref;
+                    try {
+                        lock.wait();
+                    } finally {
+                        waitingFor[worker] = -1;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChioneException(e);
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    private boolean closesCycle(int owner, int worker) {
+        int current = owner;
+        for (int i = 0; i < waitingFor.length; i++) {
+            if (current == worker) {
+                return true;
+            }
+            int awaited = waitingFor[current];
+            if (awaited < 0) {
+                return false;
+            }
+            int state = states.get(awaited);
+            if (phase(state) == DONE || state == FREE) {
+                return false;
+            }
+            current = owner(state);
+        }
+        return false;
+    }
+
+    private Object shell(int ref, int state) {
+        if (phase(state) != HOOKED) {
+            throw new ChioneException("Reference " + ref + " is required before its creation has been hooked");
+        }
+        return objects.get(ref);
+    }
+
+    private static int state(int worker, int phase) {
+        return worker << PHASE_BITS | phase;
+    }
+
+    private static int phase(int state) {
+        return state & PHASE_MASK;
+    }
+
+    private static int owner(int state) {
+        return state >>> PHASE_BITS;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Content encoding stage of {@link Chione#serialize(Object, DataOutput, Executor, int)}.
+ * <p>
+ * Workers take objects from the shared {@link ConcurrentChioneRegistry}, encode them into their own chunk buffers
+ * and append full chunks to the output under a lock, translating chunk-relative offsets of the written objects
+ * into the absolute offsets of the object table. The order of objects in the image is therefore arbitrary,
+ * but the table still maps every reference to its object.
+ */
+@ThreadSafe
+class ParallelSerialization {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final Chione chione;
+    private final ChioneFormat format;
+    private final ChioneDataOutput output;
+    private final ConcurrentChioneRegistry registry;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    private int[] offsets = new int[1024];
+    private int written;
+
+    ParallelSerialization(Chione chione,
+                          ChioneFormat format,
+                          ChioneDataOutput output,
+                          ConcurrentChioneRegistry registry) {
+        this.chione = chione;
+        this.format = format;
+        this.output = output;
+        this.registry = registry;
+    }
+
+    /**
+     * @return offsets of all the written objects indexed by their position in the object table
+     */
+    int[] run(Executor executor, int parallelism) {
+        CountDownLatch done = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            try {
+                executor.execute(new Worker(done));
+            } catch (RuntimeException e) {
+                error.compareAndSet(null, e);
+                registry.abort();
+                for (; i < parallelism; i++) {
+                    done.countDown();
+                }
+            }
+        }
+
+        Util.awaitTasks(done, error);
+
+        synchronized (this) {
+            return Arrays.copyOf(offsets, written);
+        }
+    }
+
+    private synchronized void append(ByteArrayDataOutput chunk, int[] refs, int[] chunkOffsets, int count) {
+        int base = output.currentOffset();
+        int firstReference = registry.firstReference();
+        chunk.writeTo(output);
+        for (int i = 0; i < count; i++) {
+            int index = refs[i] - firstReference;
+            if (index >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(index + 1, offsets.length * 2));
+            }
+            offsets[index] = base + chunkOffsets[i];
+        }
+        written += count;
+    }
+
+    private class Worker implements Runnable {
+
+        private final CountDownLatch done;
+        private final ByteArrayDataOutput chunk = new ByteArrayDataOutput(CHUNK_SIZE + CHUNK_SIZE / 4);
+        private final ChioneDataOutput chunkOutput = new ChioneOutputWrapper(chunk, registry, format);
+
+        private int[] refs = new int[256];
+        private int[] chunkOffsets = new int[256];
+        private int count;
+        private int chunkStart;
+
+        Worker(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (error.get() == null) {
+                    ConcurrentChioneRegistry.Entry next = registry.take();
+                    if (next == null) {
+                        if (error.get() == null) {
+                            flush();
+                        }
+                        break;
+                    }
+
+                    add(next.ref, chione.writeObject(chunkOutput, next.obj) - chunkStart);
+                    registry.written();
+
+                    if (chunk.size() >= CHUNK_SIZE) {
+                        flush();
+                    }
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+                registry.abort();
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void add(int ref, int offset) {
+            if (count == refs.length) {
+                refs = Arrays.copyOf(refs, count * 2);
+                chunkOffsets = Arrays.copyOf(chunkOffsets, count * 2);
+            }
+            refs[count] = ref;
+            chunkOffsets[count] = offset;
+            count++;
+        }
+
+        private void flush() {
+            if (count == 0) {
+                return;
+            }
+            append(chunk, refs, chunkOffsets, count);
+            chunk.reset();
+            count = 0;
+            chunkStart = chunkOutput.currentOffset();
+        }
+    }
+
+}
@@ -33,20 +33,32 @@ public class RecollectionRegistry implements Recollection<Object> {
 
     private final Map<Class<?>, Recollection<?>> recollections = new HashMap<>();
 
-    private final Recollection<Object> equalsRecollection = new MapRecollection<>(
-            new HashMapInt<>(128, 0.75f)
-    );
-    private final Recollection<Object> identityRecollection = new MapRecollection<>(
-            new IdentityHashMapInt<>(128, 0.75f)
-    );
-
-    {
-        identityRecollection.remember(StringSerializer.DESCRIPTOR, new ReferenceAllocator() {
-            @Override
-            public int nextReference() {
-                return StringSerializer.DESCRIPTOR_STATIC_REFERENCE;
+    private final DeduplicationPolicy deduplication;
+    private final MapInt<Object> values = new HashMapInt<>(128, 0.75f);
+
+    private final MapInt<Object> identities = new IdentityHashMapInt<>(128, 0.75f);
+
+    private final Recollection<Object> identityRecollection = new MapRecollection<>(identities);
+    private final Recollection<Object> valueRecollection = new Recollection<Object>() {
+        @Override
+        public int remember(Object obj, ReferenceAllocator referenceAllocator) {
+            if (values.size() < deduplication.limit()) {
+                return values.putIfAbsent(obj, referenceAllocator);
+            }
+            int ref = values.get(obj);
+            if (ref >= 0) {
+                return ref;
             }
-        });
+            return identityRecollection.remember(obj, referenceAllocator);
+        }
+    };
+
+    public RecollectionRegistry() {
+        this(DeduplicationPolicy.DEFAULT);
+    }
+
+    public RecollectionRegistry(DeduplicationPolicy deduplication) {
+        this.deduplication = deduplication;
     }
 
     @Override
@@ -54,6 +66,18 @@ public class RecollectionRegistry implements Recollection<Object> {
         return getRecollection(obj).remember(obj, referenceAllocator);
     }
 
+    DeduplicationPolicy deduplication() {
+        return deduplication;
+    }
+
+    /**
+     * Forgets all the remembered objects, keeping the tables.
+     */
+    public void clear() {
+        values.clear();
+        identities.clear();
+    }
+
     private <T> Recollection<T> getRecollection(T obj) {
         Class<?> objClass = obj.getClass();
         Recollection<?> recollection = recollections.get(objClass);
@@ -68,8 +92,8 @@ public class RecollectionRegistry implements Recollection<Object> {
     }
 
     private <T> Recollection<? super T> getRecollectionForClass(Class<T> clazz) {
-        if (clazz == String.class) {
-            return equalsRecollection;
+        if (deduplication.deduplicates(clazz)) {
+            return valueRecollection;
         }
         return identityRecollection;
     }
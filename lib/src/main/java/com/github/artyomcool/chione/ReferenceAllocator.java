@@ -31,6 +31,17 @@ public class ReferenceAllocator {
 
     private int reference;
 
+    public ReferenceAllocator() {
+    }
+
+    public ReferenceAllocator(int first) {
+        this.reference = first;
+    }
+
+    void reset(int first) {
+        this.reference = first;
+    }
+
     public int nextReference() {
         return reference++;
     }
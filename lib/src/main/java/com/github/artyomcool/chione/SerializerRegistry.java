@@ -24,22 +24,38 @@
 
 package com.github.artyomcool.chione;
 
+import net.jcip.annotations.ThreadSafe;
+
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.github.artyomcool.chione.Util.unsafeCast;
 
+/**
+ * Serializers known by class, name or supertype. The tables are filled by the constructor and only the caches
+ * of resolved serializers change afterwards, so a registry may be shared between threads.
+ */
+@ThreadSafe
 public class SerializerRegistry implements ChioneSerializer<Object> {
 
+    private static final int MAX_KNOWN = 1 << 12;
+
     private final Map<String, ChioneSerializer<?>> serializers = new HashMap<>();
     private final Map<Class<?>, ChioneSerializer<?>> aliases = new HashMap<>();
     private final ArrayMap<Class<?>, ChioneSerializer<?>> hierarchy = new ArrayMap<>();
+    private final ConcurrentMap<String, ChioneSerializer<?>> arrays = new ConcurrentHashMap<>();
+
+    // not a ClassValue: its values would be kept by the classes, including system ones, and pin the registry
+    private final ConcurrentMap<Class<?>, ChioneSerializer<?>> dispatch = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, ChioneDescriptor> known = new ConcurrentHashMap<>();
 
     public SerializerRegistry(Map<String, ChioneSerializer<?>> serializers) {
         register(arrayAsListClass(), new AbstractCollectionSerializer<List<Object>>("$Arrays.asList") {
 
             @Override
             public List<Object> deserialize(DeserializationContext context) {
-                int size = context.input().readInt();
+                int size = context.input().readCount();
                 Object[] result = new Object[size];
                 for (int i = 0; i < size; i++) {
                     result[i] = context.input().readReference();
@@ -207,12 +223,26 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
 
         register(Lazy.class, Lazy.CLASS_NAME, Lazy.REGISTRY);
 
+        registerArray(boolean[].class, ArraySerializer.BOOLEANS);
+        registerArray(byte[].class, ArraySerializer.BYTES);
+        registerArray(short[].class, ArraySerializer.SHORTS);
+        registerArray(char[].class, ArraySerializer.CHARS);
+        registerArray(int[].class, ArraySerializer.INTS);
+        registerArray(long[].class, ArraySerializer.LONGS);
+        registerArray(float[].class, ArraySerializer.FLOATS);
+        registerArray(double[].class, ArraySerializer.DOUBLES);
+
         registerHierarchy(List.class, this.aliases.get(ArrayList.class));
         registerHierarchy(Set.class, this.aliases.get(HashSet.class));
         registerHierarchy(Map.class, this.aliases.get(HashMap.class));
         registerHierarchy(Queue.class, this.aliases.get(ArrayDeque.class));
 
         this.serializers.putAll(serializers);
+        for (ChioneSerializer<?> serializer : serializers.values()) {
+            if (serializer instanceof Described) {
+                know(((Described) serializer).descriptor());
+            }
+        }
 
         register(String.class, StringSerializer.CLASS_NAME, StringSerializer.INSTANCE);
         register(ChioneDescriptor.class, ChioneDescriptor.CLASS_NAME, ChioneDescriptor.DESERIALIZER);
@@ -220,6 +250,7 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
 
     private void register(Class<?> clazz, AbstractChioneSerializer<?> serializer) {
         register(clazz, serializer.getClassName(), serializer);
+        know(serializer.describe(null));
     }
 
     private void register(Class<?> clazz, String className, ChioneSerializer<?> serializer) {
@@ -227,18 +258,23 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
         aliases.put(clazz, serializer);
     }
 
+    private void registerArray(Class<?> clazz, ArraySerializer<?> serializer) {
+        arrays.put(clazz.getName(), serializer);
+        aliases.put(clazz, serializer);
+    }
+
     private void registerHierarchy(Class<?> clazz, ChioneSerializer<?> serializer) {
         hierarchy.put(clazz, serializer);
     }
 
     @Override
     public ChioneDescriptor describe(Object obj) {
-        return getSerializer(obj).describe(obj);
+        return serializerFor(obj).describe(obj);
     }
 
     @Override
     public void writeContent(Object obj, ChioneDataOutput dataOutput) {
-        getSerializer(obj).writeContent(obj, dataOutput);
+        serializerFor(obj).writeContent(obj, dataOutput);
     }
 
     @Override
@@ -246,20 +282,36 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
         return getSerializer(context.descriptor()).deserialize(context);
     }
 
-    private <T> ChioneSerializer<T> getSerializer(Object object) {
+    /**
+     * Resolves the serializer of the object once per its class, so {@link Named#chioneName()} must be the same
+     * for all instances of a class.
+     */
+    <T> ChioneSerializer<T> serializerFor(Object object) {
+        ChioneSerializer<?> serializer = dispatch.get(object.getClass());
+        if (serializer == null) {
+            serializer = resolve(object);
+            dispatch.putIfAbsent(object.getClass(), serializer);
+        }
+        return unsafeCast(serializer);
+    }
+
+    private ChioneSerializer<?> resolve(Object object) {
         Class<?> objectClass = object.getClass();
         ChioneSerializer<?> serializer = aliases.get(objectClass);
         if (serializer != null) {
-            return unsafeCast(serializer);
+            return serializer;
+        }
+        if (objectClass.isArray()) {
+            return getArraySerializer(objectClass);
         }
         serializer = getSerializer(getName(object));
         if (serializer != null) {
-            return unsafeCast(serializer);
+            return serializer;
         }
         for (int i = 0; i < hierarchy.size(); i++) {
             Class<?> clazz = hierarchy.keyAt(i);
             if (clazz.isAssignableFrom(objectClass)) {
-                return unsafeCast(hierarchy.valueAt(i));
+                return hierarchy.valueAt(i);
             }
         }
         throw new IllegalArgumentException("No serializer for object " + object);
@@ -273,17 +325,37 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
     }
 
     private <T> ChioneSerializer<T> getSerializer(ChioneDescriptor descriptor) {
+        ChioneSerializer<?> serializer = descriptor.boundSerializer(this);
+        if (serializer != null) {
+            return unsafeCast(serializer);
+        }
         String className = descriptor.getClassName();
-        ChioneSerializer<?> serializer = getSerializer(className);
+        serializer = getSerializer(className);
         if (serializer == null) {
             throw new ChioneException("No serializer for class " + className);
         }
+        descriptor.bind(this, serializer);
+        know(descriptor);
         return unsafeCast(serializer);
     }
 
+    /**
+     * @return descriptor with the given {@link ChioneDescriptor#layoutFingerprint() layout fingerprint}
+     * of a {@link Described} serializer or resolved by this registry before, or {@code null}
+     */
+    ChioneDescriptor known(long layoutFingerprint) {
+        return known.get(layoutFingerprint);
+    }
+
+    private void know(ChioneDescriptor descriptor) {
+        if (known.size() < MAX_KNOWN) {
+            known.putIfAbsent(descriptor.layoutFingerprint(), descriptor);
+        }
+    }
+
     private ChioneSerializer<?> getSerializer(String className) {
         if (className.startsWith("[")) {
-            return ArraySerializer.INSTANCE;
+            return getArraySerializer(className);
         }
 
         ChioneSerializer<?> chioneSerializer = serializers.get(className);
@@ -294,6 +366,27 @@ public class SerializerRegistry implements ChioneSerializer<Object> {
         return null;
     }
 
+    private ChioneSerializer<?> getArraySerializer(String className) {
+        ChioneSerializer<?> serializer = arrays.get(className);
+        if (serializer == null) {
+            serializer = cacheArraySerializer(className, ArraySerializer.forName(className));
+        }
+        return serializer;
+    }
+
+    private ChioneSerializer<?> getArraySerializer(Class<?> arrayClass) {
+        ChioneSerializer<?> serializer = arrays.get(arrayClass.getName());
+        if (serializer == null) {
+            serializer = cacheArraySerializer(arrayClass.getName(), ArraySerializer.forClass(arrayClass));
+        }
+        return serializer;
+    }
+
+    private ChioneSerializer<?> cacheArraySerializer(String className, ChioneSerializer<?> serializer) {
+        ChioneSerializer<?> cached = arrays.putIfAbsent(className, serializer);
+        return cached == null ? serializer : cached;
+    }
+
     @SuppressWarnings("ArraysAsListWithZeroOrOneArgument")
     private static Class<?> arrayAsListClass() {
         return Arrays.asList().getClass();
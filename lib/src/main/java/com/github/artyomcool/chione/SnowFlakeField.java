@@ -42,4 +42,21 @@ public class SnowFlakeField {
         return type;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SnowFlakeField)) {
+            return false;
+        }
+        SnowFlakeField that = (SnowFlakeField) o;
+        return name.equals(that.name) && type.equals(that.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + type.hashCode();
+    }
+
 }
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Base for objects that keep their own reference during serialization, so the registry can find it
+ * without an identity hash lookup. The reference belongs to the session that claimed the object
+ * and is reused by the next one once the owner is finished.
+ */
+@ThreadSafe
+public abstract class Stamped {
+
+    private static final AtomicReferenceFieldUpdater<Stamped, StampSession> OWNER =
+            AtomicReferenceFieldUpdater.newUpdater(Stamped.class, StampSession.class, "owner");
+
+    private volatile StampSession owner;
+    private int reference;
+
+    final int chioneReference(StampSession session) {
+        return owner == session ? reference : ReferenceRegistry.NULL_REF;
+    }
+
+    final boolean chioneClaim(StampSession session) {
+        StampSession current = owner;
+        return (current == null || !current.isActive()) && OWNER.compareAndSet(this, current, session);
+    }
+
+    final void chioneStamp(int reference) {
+        this.reference = reference;
+    }
+
+}
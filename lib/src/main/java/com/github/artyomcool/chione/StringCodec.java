@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.charset.Charset;
+
+/**
+ * String encoding of {@link ChioneFormat#COMPACT_STRINGS}: a varint header {@code size << 2 | kind} followed by
+ * {@code size} bytes of Latin-1 or UTF-8, or {@code size} UTF-16 chars for strings with unpaired surrogates,
+ * which can't be represented in UTF-8.
+ * Encoding and decoding go through a reusable byte buffer, so a string is built right from the stored bytes.
+ */
+@NotThreadSafe
+class StringCodec {
+
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int KIND_LATIN_1 = 0;
+    private static final int KIND_UTF_8 = 1;
+    private static final int KIND_UTF_16 = 2;
+    private static final int KIND_BITS = 2;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private static final int MAX_SIZE = Integer.MAX_VALUE >>> KIND_BITS;
+
+    private byte[] buffer = new byte[64];
+
+    int write(DataOutput output, String s) {
+        int length = s.length();
+        if (length > MAX_SIZE / 3) {
+            return writeLarge(output, s);
+        }
+        byte[] buffer = ensureBuffer(length * 3);
+        int i = 0;
+        for (; i < length; i++) {
+            char c = s.charAt(i);
+            if (c > 0xff) {
+                break;
+            }
+            buffer[i] = (byte) c;
+        }
+        if (i == length) {
+            return writeBytes(output, KIND_LATIN_1, buffer, length);
+        }
+        int size = encodeUtf8(s, buffer);
+        if (size < 0) {
+            return writeChars(output, s);
+        }
+        return writeBytes(output, KIND_UTF_8, buffer, size);
+    }
+
+    String read(DataInput input) {
+        int header = ChioneFormat.readVarInt(input);
+        int size = header >>> KIND_BITS;
+        switch (header & KIND_MASK) {
+            case KIND_LATIN_1:
+                return new String(readBytes(input, size), 0, size, LATIN_1);
+            case KIND_UTF_8:
+                return new String(readBytes(input, size), 0, size, UTF_8);
+            case KIND_UTF_16:
+                char[] chars = new char[size];
+                input.readChars(chars, 0, size);
+                return new String(chars);
+            default:
+                throw new ChioneException("Unknown string encoding: " + (header & KIND_MASK));
+        }
+    }
+
+    /**
+     * Moves the input past a string without decoding it.
+     */
+    static void skip(DataInput input) {
+        int header = ChioneFormat.readVarInt(input);
+        int size = header >>> KIND_BITS;
+        if ((header & KIND_MASK) == KIND_UTF_16) {
+            size *= DataInput.SHORT_SIZE;
+        }
+        input.seek(input.pos() + size);
+    }
+
+    private int writeLarge(DataOutput output, String s) {
+        if (hasUnpairedSurrogates(s)) {
+            return writeChars(output, s);
+        }
+        byte[] bytes = s.getBytes(UTF_8);
+        if (bytes.length > MAX_SIZE) {
+            throw new ChioneException("String is too long: " + s.length());
+        }
+        return writeBytes(output, KIND_UTF_8, bytes, bytes.length);
+    }
+
+    private int writeBytes(DataOutput output, int kind, byte[] bytes, int size) {
+        int header = ChioneFormat.writeVarInt(output, size << KIND_BITS | kind);
+        return header + output.write(bytes, 0, size);
+    }
+
+    private int writeChars(DataOutput output, String s) {
+        int length = s.length();
+        if (length > MAX_SIZE) {
+            throw new ChioneException("String is too long: " + length);
+        }
+        char[] chars = s.toCharArray();
+        int header = ChioneFormat.writeVarInt(output, length << KIND_BITS | KIND_UTF_16);
+        return header + output.write(chars, 0, length);
+    }
+
+    private byte[] readBytes(DataInput input, int size) {
+        byte[] buffer = ensureBuffer(size);
+        input.readBytes(buffer, 0, size);
+        return buffer;
+    }
+
+    private byte[] ensureBuffer(int size) {
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, buffer.length * 2)];
+        }
+        return buffer;
+    }
+
+    /**
+     * @return count of the encoded bytes or -1 if the string has unpaired surrogates
+     */
+    private static int encodeUtf8(String s, byte[] dst) {
+        int length = s.length();
+        int p = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[p++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[p++] = (byte) (0xc0 | c >> 6);
+                dst[p++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                if (!Character.isHighSurrogate(c) || i + 1 == length || !Character.isLowSurrogate(s.charAt(i + 1))) {
+                    return -1;
+                }
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                dst[p++] = (byte) (0xf0 | codePoint >> 18);
+                dst[p++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                dst[p++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                dst[p++] = (byte) (0x80 | codePoint & 0x3f);
+            } else {
+                dst[p++] = (byte) (0xe0 | c >> 12);
+                dst[p++] = (byte) (0x80 | c >> 6 & 0x3f);
+                dst[p++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return p;
+    }
+
+    private static boolean hasUnpairedSurrogates(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
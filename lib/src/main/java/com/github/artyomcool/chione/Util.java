@@ -24,6 +24,9 @@
 
 package com.github.artyomcool.chione;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class Util {
 
     @SuppressWarnings("unchecked")
@@ -31,4 +34,35 @@ public class Util {
         return (T) obj;
     }
 
+    /**
+     * Waits for the latch even if interrupted (the interruption is recorded as the failure and restored afterwards)
+     * and rethrows the first recorded failure of the tasks.
+     */
+    static void awaitTasks(CountDownLatch done, AtomicReference<Throwable> failure) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t != null) {
+            throw new ChioneException((Exception) t);
+        }
+    }
+
 }
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Artyom Drozdov (https://github.com/artyomcool)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.github.artyomcool.chione;
+
+/**
+ * Measures {@link MapInt} insertions and lookups per second; run it as a plain java application,
+ * optionally passing the sizes to check (defaults to 1M and 10M entries).
+ */
+public class MapIntBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int[] sizes = {1_000_000, 10_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int size : sizes) {
+            Object[] identityKeys = new Object[size];
+            Object[] equalityKeys = new Object[size];
+            for (int i = 0; i < size; i++) {
+                identityKeys[i] = new Object();
+                equalityKeys[i] = "key" + i;
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                run("identity", new IdentityHashMapInt<>(128, 0.75f), identityKeys);
+                run("equality", new HashMapInt<>(128, 0.75f), equalityKeys);
+            }
+        }
+    }
+
+    private static void run(String name, MapInt<Object> map, Object[] keys) {
+        ReferenceAllocator allocator = new ReferenceAllocator();
+
+        long start = System.nanoTime();
+        for (Object key : keys) {
+            map.putIfAbsent(key, allocator);
+        }
+        long inserted = System.nanoTime();
+
+        long checksum = 0;
+        for (Object key : keys) {
+            checksum += map.putIfAbsent(key, allocator);
+        }
+        long found = System.nanoTime();
+
+        if (map.size() != keys.length || checksum != (long) keys.length * (keys.length - 1) / 2) {
+            throw new IllegalStateException("Wrong map state for " + name);
+        }
+
+        System.out.printf("%s %,d: %,.0f inserts/s, %,.0f lookups/s%n",
+                name,
+                keys.length,
+                keys.length * 1e9 / (inserted - start),
+                keys.length * 1e9 / (found - inserted));
+    }
+
+}